@@ -0,0 +1,136 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+
+package com.esri.geoevent.transport.rabbitmq;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.esri.ges.transport.ByteListener;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Envelope;
+
+/**
+ * Passes a delivery through the inbound transport to the adapter: buffer wrapping, decompression, splitting of
+ * coalesced bodies and acknowledgement bookkeeping.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RabbitMQInboundDispatchBenchmark
+{
+  private static final int         RECORDS = 10;
+  @Param({ "Plain", "Coalesced", "Gzip", "Zstd" })
+  public String                    encoding;
+  @Param({ "100", "1000" })
+  public int                       recordSize;
+  private RabbitMQInboundTransport transport;
+  private RabbitMQQueueingConsumer source;
+  private Envelope                 envelope;
+  private AMQP.BasicProperties     properties;
+  private byte[]                   body;
+  private long                     received;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    transport = new RabbitMQInboundTransport(new RabbitMQInboundTransportDefinition());
+    transport.setByteListener(new ByteListener()
+      {
+        @Override
+        public void receive(ByteBuffer buffer, String channelId)
+        {
+          received += buffer.remaining();
+        }
+      });
+    source = new RabbitMQQueueingConsumer(RabbitMQStubChannel.create(), 0, 1, RabbitMQAcknowledgementMode.Auto, 100, transport);
+    envelope = new Envelope(1, false, "benchmark", "");
+
+    byte[] record = record(recordSize);
+    switch (encoding)
+    {
+      case "Coalesced":
+        body = new byte[record.length * RECORDS];
+        for (int i = 0; i < RECORDS; i++)
+          System.arraycopy(record, 0, body, i * record.length, record.length);
+        properties = new AMQP.BasicProperties.Builder().headers(Collections.<String, Object> singletonMap(RabbitMQCoalescer.RECORD_SEPARATOR_HEADER, "\\n")).build();
+        break;
+      case "Gzip":
+      case "Zstd":
+        RabbitMQCompression compression = RabbitMQCompression.valueOf(encoding);
+        body = RabbitMQCodec.get().compress(ByteBuffer.wrap(record), compression);
+        properties = new AMQP.BasicProperties.Builder().contentEncoding(compression.getContentEncoding()).build();
+        break;
+      default:
+        body = record;
+        properties = null;
+        break;
+    }
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    transport.shutdown();
+  }
+
+  @Benchmark
+  public long dispatch()
+  {
+    transport.onDelivery(source, new RabbitMQQueueingConsumer.Delivery(envelope, properties, body));
+    return received;
+  }
+
+  /**
+   * A comma separated text record terminated by a newline, like the Text adapter produces.
+   */
+  static byte[] record(int size)
+  {
+    StringBuilder record = new StringBuilder(size);
+    for (int field = 0; record.length() < size - 1; field++)
+      record.append(field == 0 ? "" : ",").append("value").append(field);
+    record.setLength(size - 1);
+    record.append('\n');
+    return record.toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,94 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+
+package com.esri.geoevent.transport.rabbitmq;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fans a connection event out to the components listening to a broker, from one thread and from several at once,
+ * with listeners called in place or handed to the event executor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RabbitMQObservableBenchmark
+{
+  @Param({ "1", "8", "64" })
+  public int                 listeners;
+  @Param({ "false", "true" })
+  public boolean             async;
+  private RabbitMQObservable observable;
+  private final LongAdder    events = new LongAdder();
+
+  @Setup
+  public void setup()
+  {
+    observable = new RabbitMQObservable()
+      {
+      };
+    for (int i = 0; i < listeners; i++)
+    {
+      observable.addListener(new RabbitMQTransportListener()
+        {
+          @Override
+          public void onTransportEvent(RabbitMQTransportEvent event)
+          {
+            events.increment();
+          }
+        }, async);
+    }
+  }
+
+  @Benchmark
+  public void notifyListeners()
+  {
+    observable.notifyListeners(RabbitMQConnectionStatus.RECOVERY_COMPLETED, "benchmark");
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void notifyListenersConcurrently()
+  {
+    observable.notifyListeners(RabbitMQConnectionStatus.RECOVERY_COMPLETED, "benchmark");
+  }
+}
@@ -0,0 +1,108 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+
+package com.esri.geoevent.transport.rabbitmq;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Publishes through {@link RabbitMQProducer#send(ByteBuffer)} on a stub channel, with and without publisher confirms,
+ * for buffers the producer can publish in place and for those it has to copy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RabbitMQProducerBenchmark
+{
+  @Param({ "false", "true" })
+  public boolean           confirms;
+  @Param({ "100", "1000" })
+  public int               messageSize;
+  @Param({ "Heap", "Slice", "Direct" })
+  public String            bufferType;
+  private RabbitMQProducer producer;
+  private ByteBuffer       buffer;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    // nothing listens on the discard port, the broker's monitor keeps failing to connect in the background
+    RabbitMQConnectionInfo connectionInfo = new RabbitMQConnectionInfo("127.0.0.1", "9", "/", null, null, "false");
+    RabbitMQExchange exchange = new RabbitMQExchange("benchmark", "direct", "Transient", "true", "");
+    producer = new RabbitMQProducer(connectionInfo, exchange);
+    producer.setPublisherConfirms(confirms, 1000);
+    producer.channel = RabbitMQStubChannel.create();
+    producer.init();
+    producer.connected = true;
+
+    byte[] message = RabbitMQInboundDispatchBenchmark.record(messageSize);
+    switch (bufferType)
+    {
+      case "Slice":
+        buffer = ByteBuffer.allocate(message.length + 16);
+        buffer.position(8);
+        buffer.put(message);
+        buffer.flip().position(8);
+        break;
+      case "Direct":
+        buffer = ByteBuffer.allocateDirect(message.length);
+        buffer.put(message);
+        buffer.flip();
+        break;
+      default:
+        buffer = ByteBuffer.wrap(message);
+        break;
+    }
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    producer.shutdown("");
+  }
+
+  @Benchmark
+  public boolean send() throws RabbitMQTransportException
+  {
+    return producer.send(buffer);
+  }
+}
@@ -0,0 +1,107 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+
+package com.esri.geoevent.transport.rabbitmq;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+
+import com.rabbitmq.client.Envelope;
+
+/**
+ * Hands deliveries from the client's dispatch thread to a dispatcher thread through the consumer's buffer, the way
+ * the inbound transport does in 'Queued' mode.
+ */
+@State(Scope.Group)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RabbitMQQueueingConsumerBenchmark
+{
+  private static final int            CAPACITY = 1000;
+  @Param({ "100", "1000" })
+  public int                          messageSize;
+  @Param({ "Auto", "ManualBatched" })
+  public RabbitMQAcknowledgementMode  ackMode;
+  private RabbitMQQueueingConsumer    consumer;
+  private byte[]                      body;
+  private long                        deliveryTag;
+
+  @Setup(Level.Iteration)
+  public void setup()
+  {
+    consumer = new RabbitMQQueueingConsumer(RabbitMQStubChannel.create(), 0, CAPACITY, ackMode, 100, null);
+    body = new byte[messageSize];
+    deliveryTag = 0;
+  }
+
+  @Benchmark
+  @Group("handoff")
+  @GroupThreads(1)
+  public void deliver(Control control) throws IOException
+  {
+    // wait for room rather than blocking in put, the dispatcher may already have stopped at the end of an iteration
+    while (consumer.getBacklog() >= CAPACITY)
+    {
+      if (control.stopMeasurement)
+        return;
+      Thread.yield();
+    }
+    consumer.handleDelivery("benchmark", new Envelope(++deliveryTag, false, "benchmark", ""), null, body);
+  }
+
+  @Benchmark
+  @Group("handoff")
+  @GroupThreads(1)
+  public RabbitMQQueueingConsumer.Delivery dispatch(Control control) throws InterruptedException
+  {
+    RabbitMQQueueingConsumer.Delivery delivery;
+    while ((delivery = consumer.nextDelivery(1)) == null)
+    {
+      if (control.stopMeasurement)
+        return null;
+    }
+    consumer.complete(delivery);
+    return delivery;
+  }
+}
@@ -0,0 +1,91 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+
+package com.esri.geoevent.transport.rabbitmq;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+
+/**
+ * A {@link Channel} that does nothing, so the benchmarks measure the connector rather than the network. Publishes
+ * are confirmed immediately once a confirm listener has been added.
+ */
+final class RabbitMQStubChannel implements InvocationHandler
+{
+  private long            nextPublishSeqNo = 1;
+  private ConfirmListener confirmListener;
+
+  private RabbitMQStubChannel()
+  {
+  }
+
+  static Channel create()
+  {
+    return (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class<?>[] { Channel.class }, new RabbitMQStubChannel());
+  }
+
+  @Override
+  public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+  {
+    switch (method.getName())
+    {
+      case "isOpen":
+        return true;
+      case "getNextPublishSeqNo":
+        return nextPublishSeqNo;
+      case "addConfirmListener":
+        confirmListener = (ConfirmListener) args[0];
+        return null;
+      case "basicPublish":
+        long sequenceNumber = nextPublishSeqNo++;
+        if (confirmListener != null)
+          confirmListener.handleAck(sequenceNumber, false);
+        return null;
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "equals":
+        return proxy == args[0];
+      case "toString":
+        return "RabbitMQStubChannel";
+      default:
+        return defaultValue(method.getReturnType());
+    }
+  }
+
+  private static Object defaultValue(Class<?> type)
+  {
+    if (type == boolean.class)
+      return false;
+    if (type == int.class)
+      return 0;
+    if (type == long.class)
+      return 0L;
+    return null;
+  }
+}
@@ -0,0 +1,94 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+
+package com.esri.geoevent.transport.rabbitmq;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.qpid.server.SystemLauncher;
+import org.apache.qpid.server.model.SystemConfig;
+
+/**
+ * An in-memory Qpid Broker-J speaking AMQP 0-9-1 on a local port, with a single user and the default virtual host.
+ */
+public class RabbitMQEmbeddedBroker
+{
+  private final SystemLauncher launcher = new SystemLauncher();
+  private final int            port;
+  private final String         username;
+  private final String         password;
+
+  public RabbitMQEmbeddedBroker(int port, String username, String password)
+  {
+    this.port = (port > 0) ? port : freePort();
+    this.username = username;
+    this.password = password;
+  }
+
+  public void start() throws Exception
+  {
+    Map<String, String> context = new HashMap<String, String>();
+    context.put("harness.port", Integer.toString(port));
+    context.put("harness.username", username);
+    context.put("harness.password", password);
+
+    Map<String, Object> attributes = new HashMap<String, Object>();
+    attributes.put(SystemConfig.TYPE, "Memory");
+    attributes.put(SystemConfig.INITIAL_CONFIGURATION_LOCATION, RabbitMQEmbeddedBroker.class.getResource("/harness-broker.json").toExternalForm());
+    attributes.put(SystemConfig.STARTUP_LOGGED_TO_SYSTEM_OUT, false);
+    attributes.put(SystemConfig.CONTEXT, context);
+    launcher.startup(attributes);
+  }
+
+  public void stop()
+  {
+    launcher.shutdown();
+  }
+
+  public int getPort()
+  {
+    return port;
+  }
+
+  public RabbitMQConnectionInfo getConnectionInfo()
+  {
+    return new RabbitMQConnectionInfo("localhost", Integer.toString(port), "/", username, password, "false");
+  }
+
+  private static int freePort()
+  {
+    try (ServerSocket socket = new ServerSocket(0))
+    {
+      return socket.getLocalPort();
+    }
+    catch (IOException e)
+    {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,225 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+
+package com.esri.geoevent.transport.rabbitmq;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Publishes through a {@link RabbitMQProducer} to an embedded broker and consumes through a {@link RabbitMQConsumer},
+ * once per message size, and reports throughput and end-to-end latency. Settings are read from system properties:
+ * <ul>
+ * <li>harness.sizes - comma separated message sizes in bytes (100,1000,10000)</li>
+ * <li>harness.messages - messages per size (100000)</li>
+ * <li>harness.warmup - messages of the first size sent before measuring, and left out of the report (20000)</li>
+ * <li>harness.rate - messages per second, 0 publishes as fast as possible (0)</li>
+ * <li>harness.confirms - publish with publisher confirms (false)</li>
+ * <li>harness.ackMode - Auto or ManualBatched (Auto)</li>
+ * <li>harness.prefetch - consumer prefetch count (250)</li>
+ * <li>harness.timeout - seconds to wait for all messages of a size to arrive (120)</li>
+ * <li>harness.port - broker port, 0 picks a free one (0)</li>
+ * <li>harness.report - file the report is also written to (none)</li>
+ * </ul>
+ * The run fails if any message does not arrive in time.
+ */
+public class RabbitMQIntegrationHarness
+{
+  private static final long                 CONNECT_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+  private final RabbitMQConnectionInfo      connectionInfo;
+  private final int                         messages;
+  private final int                         rate;
+  private final boolean                     confirms;
+  private final RabbitMQAcknowledgementMode ackMode;
+  private final int                         prefetch;
+  private final long                        timeout;
+
+  public RabbitMQIntegrationHarness(RabbitMQConnectionInfo connectionInfo)
+  {
+    this.connectionInfo = connectionInfo;
+    this.messages = Integer.getInteger("harness.messages", 100000);
+    this.rate = Integer.getInteger("harness.rate", 0);
+    this.confirms = Boolean.getBoolean("harness.confirms");
+    this.ackMode = RabbitMQAcknowledgementMode.valueOf(System.getProperty("harness.ackMode", RabbitMQAcknowledgementMode.Auto.toString()));
+    this.prefetch = Integer.getInteger("harness.prefetch", 250);
+    this.timeout = TimeUnit.SECONDS.toNanos(Integer.getInteger("harness.timeout", 120));
+  }
+
+  public static void main(String[] args) throws Exception
+  {
+    List<Integer> sizes = new ArrayList<Integer>();
+    for (String size : System.getProperty("harness.sizes", "100,1000,10000").split(","))
+      sizes.add(Math.max(Long.BYTES, Integer.parseInt(size.trim())));
+
+    RabbitMQEmbeddedBroker broker = new RabbitMQEmbeddedBroker(Integer.getInteger("harness.port", 0), "guest", "guest");
+    broker.start();
+    List<Result> results = new ArrayList<Result>();
+    try
+    {
+      RabbitMQIntegrationHarness harness = new RabbitMQIntegrationHarness(broker.getConnectionInfo());
+      int warmup = Integer.getInteger("harness.warmup", 20000);
+      if (warmup > 0)
+        harness.run(sizes.get(0), warmup);
+      for (int size : sizes)
+        results.add(harness.run(size, harness.messages));
+    }
+    finally
+    {
+      broker.stop();
+    }
+
+    String report = report(results);
+    System.out.print(report);
+    String file = System.getProperty("harness.report");
+    if (file != null && !file.isEmpty())
+    {
+      try (FileWriter writer = new FileWriter(file))
+      {
+        writer.write(report);
+      }
+    }
+    for (Result result : results)
+      if (result.received < result.sent)
+        throw new IllegalStateException("Only " + result.received + " of " + result.sent + " messages of " + result.size + " bytes arrived.");
+  }
+
+  public Result run(int size, int messages) throws Exception
+  {
+    String name = "harness-" + size;
+    RabbitMQExchange exchange = new RabbitMQExchange(name, RabbitMQExchangeType.direct.toString(), RabbitMQDurability.Transient.toString(), "true", "");
+    RabbitMQQueue queue = new RabbitMQQueue(name, RabbitMQDurability.Transient.toString(), "false", "true");
+    final Result result = new Result(size);
+    final CountDownLatch arrived = new CountDownLatch(messages);
+    final AtomicLong lastArrival = new AtomicLong();
+
+    RabbitMQConsumer consumer = new RabbitMQConsumer(connectionInfo, exchange, queue);
+    consumer.setPrefetchCount(prefetch);
+    consumer.setAcknowledgementMode(ackMode);
+    consumer.setDeliveryListener(new RabbitMQDeliveryListener()
+      {
+        @Override
+        public void onDelivery(RabbitMQQueueingConsumer source, RabbitMQQueueingConsumer.Delivery delivery)
+        {
+          long now = System.nanoTime();
+          result.latency.record(now - ByteBuffer.wrap(delivery.getBody()).getLong());
+          result.received++;
+          lastArrival.set(now);
+          source.complete(delivery);
+          arrived.countDown();
+        }
+      });
+    RabbitMQProducer producer = new RabbitMQProducer(connectionInfo, exchange);
+    producer.setPublisherConfirms(confirms, 1000);
+    try
+    {
+      connect(consumer);
+      connect(producer);
+
+      byte[] body = new byte[size];
+      ByteBuffer buffer = ByteBuffer.wrap(body);
+      long interval = (rate > 0) ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+      long start = System.nanoTime();
+      for (int i = 0; i < messages; i++)
+      {
+        if (interval > 0)
+        {
+          long delay = start + i * interval - System.nanoTime();
+          if (delay > 0)
+            LockSupport.parkNanos(delay);
+        }
+        buffer.putLong(0, System.nanoTime());
+        if (producer.send(buffer))
+          result.sent++;
+      }
+      result.publishNanos = System.nanoTime() - start;
+      arrived.await(timeout, TimeUnit.NANOSECONDS);
+      result.elapsedNanos = Math.max(lastArrival.get() - start, 1);
+    }
+    finally
+    {
+      producer.shutdown("");
+      consumer.shutdown("");
+    }
+    return result;
+  }
+
+  private static void connect(RabbitMQComponentBase component) throws Exception
+  {
+    // the shared connection is established in the background, retry until it is up
+    long deadline = System.nanoTime() + CONNECT_TIMEOUT;
+    while (true)
+    {
+      try
+      {
+        component.connect();
+        return;
+      }
+      catch (RabbitMQTransportException e)
+      {
+        if (System.nanoTime() > deadline)
+          throw e;
+        Thread.sleep(100);
+      }
+    }
+  }
+
+  private static String report(List<Result> results)
+  {
+    StringWriter report = new StringWriter();
+    PrintWriter out = new PrintWriter(report);
+    out.printf("%10s %10s %10s %12s %12s %10s %10s %10s %10s%n", "size", "sent", "received", "publish/s", "deliver/s", "MB/s", "p50 us", "p99 us", "max us");
+    for (Result result : results)
+    {
+      double seconds = result.elapsedNanos / 1e9;
+      out.printf("%10d %10d %10d %12.0f %12.0f %10.1f %10d %10d %10d%n", result.size, result.sent, result.received, result.sent / (result.publishNanos / 1e9), result.received / seconds, result.received * (double) result.size / seconds / (1024 * 1024), result.latency.getPercentile(50), result.latency.getPercentile(99), result.latency.getMax());
+    }
+    out.flush();
+    return report.toString();
+  }
+
+  public static class Result
+  {
+    private final int               size;
+    private final RabbitMQHistogram latency = new RabbitMQHistogram();
+    private long                    sent;
+    private volatile long           received;
+    private long                    publishNanos;
+    private long                    elapsedNanos;
+
+    public Result(int size)
+    {
+      this.size = size;
+    }
+  }
+}
@@ -0,0 +1,222 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+
+package com.esri.geoevent.transport.rabbitmq;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concatenates outbound records into message bodies, one body per route, so that records only share a message with
+ * records going to the same place. Every record is terminated by the separator, and a body is handed to
+ * {@link #publish(RabbitMQRoute, byte[])} once it holds maxRecords records, would grow beyond maxBytes, or the oldest
+ * record in it has waited for the linger time. The bodies of a route are handed over while holding a lock for that
+ * route, so that they keep their order. Routes share a small set of locks.
+ */
+public abstract class RabbitMQCoalescer
+{
+  public static final String              RECORD_SEPARATOR_HEADER = "x-geoevent-record-separator";
+  private static final int                INITIAL_CAPACITY        = 4096;
+  private static final int                ROUTE_LOCKS             = 16;
+  private final byte[]                    separator;
+  private final int                       maxBytes;
+  private final int                       maxRecords;
+  private final long                      linger;
+  private final Map<RabbitMQRoute, Batch> batches                 = new HashMap<RabbitMQRoute, Batch>();
+  private final Object[]                  routeLocks              = new Object[ROUTE_LOCKS];
+  private byte[]                          spare;
+
+  public RabbitMQCoalescer(byte[] separator, int maxBytes, int maxRecords, long linger)
+  {
+    this.separator = separator;
+    this.maxBytes = Math.max(1, maxBytes);
+    this.maxRecords = Math.max(1, maxRecords);
+    this.linger = Math.max(1, linger);
+    for (int i = 0; i < routeLocks.length; i++)
+      routeLocks[i] = new Object();
+  }
+
+  protected abstract void publish(RabbitMQRoute route, byte[] body);
+
+  public void append(ByteBuffer record, RabbitMQRoute route)
+  {
+    if (record == null || !record.hasRemaining())
+      return;
+    synchronized (lockOf(route))
+    {
+      byte[] previous = null;
+      byte[] current = null;
+      synchronized (this)
+      {
+        int length = record.remaining();
+        int needed = endsWithSeparator(record) ? length : length + separator.length;
+        Batch batch = batches.get(route);
+        if (batch != null && batch.size + needed > maxBytes)
+        {
+          previous = take(batch);
+          batch = null;
+        }
+        if (batch == null)
+        {
+          batch = new Batch(route);
+          batches.put(route, batch);
+          scheduleLinger(batch);
+        }
+        if (batch.size + needed > batch.buffer.length)
+          batch.buffer = Arrays.copyOf(batch.buffer, Math.max(batch.size + needed, batch.buffer.length * 2));
+        int position = record.position();
+        record.get(batch.buffer, batch.size, length);
+        record.position(position);
+        batch.size += length;
+        if (needed > length)
+        {
+          System.arraycopy(separator, 0, batch.buffer, batch.size, separator.length);
+          batch.size += separator.length;
+        }
+        if (++batch.records >= maxRecords || batch.size >= maxBytes)
+          current = take(batch);
+      }
+      if (previous != null)
+        publish(route, previous);
+      if (current != null)
+        publish(route, current);
+    }
+  }
+
+  public void flush()
+  {
+    List<RabbitMQRoute> routes;
+    synchronized (this)
+    {
+      routes = new ArrayList<RabbitMQRoute>(batches.keySet());
+    }
+    for (RabbitMQRoute route : routes)
+      publishPending(route, null);
+  }
+
+  private void scheduleLinger(final Batch batch)
+  {
+    batch.lingerTask = RabbitMQScheduler.getExecutor().schedule(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          publishPending(batch.route, batch);
+        }
+      }, linger, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Publishes the pending body of the route, if there is one and it is still the given batch. A null batch matches
+   * any pending body.
+   */
+  private void publishPending(RabbitMQRoute route, Batch batch)
+  {
+    synchronized (lockOf(route))
+    {
+      byte[] body = null;
+      synchronized (this)
+      {
+        // the batch may have been taken and replaced by a newer one for the same route
+        Batch pending = batches.get(route);
+        if (pending != null && (batch == null || pending == batch))
+          body = take(pending);
+      }
+      if (body != null)
+        publish(route, body);
+    }
+  }
+
+  private Object lockOf(RabbitMQRoute route)
+  {
+    int hash = (route != null) ? route.hashCode() : 0;
+    return routeLocks[(hash ^ (hash >>> 16)) & (ROUTE_LOCKS - 1)];
+  }
+
+  private byte[] take(Batch batch)
+  {
+    byte[] body = Arrays.copyOf(batch.buffer, batch.size);
+    batches.remove(batch.route);
+    if (batch.lingerTask != null)
+      batch.lingerTask.cancel(false);
+    // keep one buffer around, so that a single busy route does not allocate a new one for every body
+    spare = batch.buffer;
+    batch.buffer = null;
+    return body;
+  }
+
+  private boolean endsWithSeparator(ByteBuffer record)
+  {
+    int length = separator.length;
+    if (length == 0)
+      return true;
+    if (record.remaining() < length)
+      return false;
+    int offset = record.limit() - length;
+    for (int i = 0; i < length; i++)
+      if (record.get(offset + i) != separator[i])
+        return false;
+    return true;
+  }
+
+  private class Batch
+  {
+    private final RabbitMQRoute route;
+    private byte[]              buffer;
+    private int                 size;
+    private int                 records;
+    private ScheduledFuture<?>  lingerTask;
+
+    private Batch(RabbitMQRoute route)
+    {
+      this.route = route;
+      if (spare != null)
+      {
+        buffer = spare;
+        spare = null;
+      }
+      else
+        buffer = new byte[Math.min(maxBytes, INITIAL_CAPACITY)];
+    }
+  }
+
+  /**
+   * Converts a separator property into bytes, resolving the escape sequences GeoEvent uses for separators.
+   */
+  public static byte[] parseSeparator(String value)
+  {
+    if (value == null)
+      return new byte[0];
+    String separator = value.replace("\\n", "\n").replace("\\r", "\r").replace("\\t", "\t");
+    return separator.getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,317 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+
+package com.esri.geoevent.transport.rabbitmq;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdException;
+import com.github.luben.zstd.util.Native;
+
+/**
+ * Compresses and decompresses message bodies with the JDK's zlib or with zstd. Each thread has its own codec so that
+ * the deflaters, inflaters, zstd contexts and buffers are reused from one message to the next. Gzip framing is written
+ * and parsed here around a raw deflate stream, which spares the stream wrappers and their copies. A buffer that had to
+ * grow beyond MAX_RETAINED_CAPACITY for an exceptionally large message is not kept for the next one.
+ */
+final class RabbitMQCodec
+{
+  private static final ThreadLocal<RabbitMQCodec> codecs                = new ThreadLocal<RabbitMQCodec>();
+  private static final int                        GZIP_HEADER           = 10;
+  private static final int                        GZIP_TRAILER          = 8;
+  private static final int                        FHCRC                 = 2;
+  private static final int                        FEXTRA                = 4;
+  private static final int                        FNAME                 = 8;
+  private static final int                        FCOMMENT              = 16;
+  private static final int                        ZSTD_LEVEL            = 1;
+  private static final int                        INITIAL_CAPACITY      = 8192;
+  private static final int                        MAX_RETAINED_CAPACITY = 1024 * 1024;
+  private final Deflater                          deflater              = new Deflater(Deflater.BEST_SPEED, false);
+  private final Deflater                          rawDeflater           = new Deflater(Deflater.BEST_SPEED, true);
+  private final Inflater                          inflater              = new Inflater(false);
+  private final Inflater                          rawInflater           = new Inflater(true);
+  private final CRC32                             crc                   = new CRC32();
+  private ZstdCompressCtx                         zstdCompressor;
+  private ZstdDecompressCtx                       zstdDecompressor;
+  private byte[]                                  input                 = new byte[0];
+  private byte[]                                  output                = new byte[INITIAL_CAPACITY];
+
+  private RabbitMQCodec()
+  {
+  }
+
+  static RabbitMQCodec get()
+  {
+    RabbitMQCodec codec = codecs.get();
+    if (codec == null)
+    {
+      codec = new RabbitMQCodec();
+      codecs.set(codec);
+    }
+    return codec;
+  }
+
+  /**
+   * Whether the compression can be used on this platform, zstd needs its native library.
+   */
+  static boolean isAvailable(RabbitMQCompression compression)
+  {
+    if (!RabbitMQCompression.Zstd.equals(compression))
+      return true;
+    try
+    {
+      Native.load();
+      return true;
+    }
+    catch (LinkageError e)
+    {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the compressed bytes between the buffer's position and limit, leaving the buffer unchanged.
+   */
+  byte[] compress(ByteBuffer buffer, RabbitMQCompression compression)
+  {
+    int length = buffer.remaining();
+    byte[] array;
+    int offset;
+    if (buffer.hasArray())
+    {
+      array = buffer.array();
+      offset = buffer.arrayOffset() + buffer.position();
+    }
+    else
+    {
+      if (input.length < length)
+        input = new byte[length];
+      buffer.duplicate().get(input, 0, length);
+      array = input;
+      offset = 0;
+    }
+
+    int size = 0;
+    if (RabbitMQCompression.Gzip.equals(compression))
+    {
+      output[0] = (byte) 0x1f;
+      output[1] = (byte) 0x8b;
+      output[2] = Deflater.DEFLATED;
+      Arrays.fill(output, 3, GZIP_HEADER, (byte) 0);
+      output[9] = (byte) 0xff;
+      size = deflate(rawDeflater, array, offset, length, GZIP_HEADER);
+      crc.reset();
+      crc.update(array, offset, length);
+      ensureCapacity(size + GZIP_TRAILER);
+      writeInt(output, size, (int) crc.getValue());
+      writeInt(output, size + 4, length);
+      size += GZIP_TRAILER;
+    }
+    else if (RabbitMQCompression.Zstd.equals(compression))
+    {
+      if (zstdCompressor == null)
+        zstdCompressor = new ZstdCompressCtx().setLevel(ZSTD_LEVEL).setContentSize(true);
+      ensureCapacity((int) Math.min(Integer.MAX_VALUE, Zstd.compressBound(length)));
+      size = zstdCompressor.compressByteArray(output, 0, output.length, array, offset, length);
+    }
+    else
+      size = deflate(deflater, array, offset, length, 0);
+    byte[] body = Arrays.copyOf(output, size);
+    releaseOversized();
+    return body;
+  }
+
+  /**
+   * Returns the decompressed body as a view of this thread's output buffer, which is overwritten by the next call.
+   *
+   * @param maxSize the most bytes the body may decompress to, larger ones are rejected before they are inflated further
+   */
+  ByteBuffer decompress(byte[] body, RabbitMQCompression compression, int maxSize) throws DataFormatException
+  {
+    try
+    {
+      int size;
+      if (RabbitMQCompression.Gzip.equals(compression))
+      {
+        int offset = readGzipHeader(body);
+        int trailer = body.length - GZIP_TRAILER;
+        if (trailer < offset)
+          throw new DataFormatException("Truncated gzip stream");
+        int expectedCrc = readInt(body, trailer);
+        int expectedSize = readInt(body, trailer + 4);
+        // the trailer holds the size modulo 2^32, so it can only rule out bodies up to 4 GB
+        if (expectedSize < 0 || expectedSize > maxSize)
+          throw tooLarge(maxSize);
+        // deflate cannot expand data by more than about 1032:1, so anything beyond that is a corrupt trailer
+        if (expectedSize / 1032 <= body.length)
+          ensureCapacity(expectedSize);
+        size = inflate(rawInflater, body, offset, trailer - offset, maxSize);
+        crc.reset();
+        crc.update(output, 0, size);
+        if ((int) crc.getValue() != expectedCrc || size != expectedSize)
+          throw new DataFormatException("Corrupt gzip trailer");
+      }
+      else if (RabbitMQCompression.Zstd.equals(compression))
+        size = zstdDecompress(body, maxSize);
+      else
+        size = inflate(inflater, body, 0, body.length, maxSize);
+      return ByteBuffer.wrap(output, 0, size);
+    }
+    finally
+    {
+      // the returned view keeps the oversized buffer alive only as long as the caller needs it
+      releaseOversized();
+    }
+  }
+
+  private int zstdDecompress(byte[] body, int maxSize) throws DataFormatException
+  {
+    try
+    {
+      // our publishers always record the size, bodies without one would have to be inflated blindly
+      long contentSize = Zstd.getFrameContentSize(body);
+      if (contentSize < 0)
+        throw new DataFormatException("zstd frame without content size");
+      if (contentSize > maxSize)
+        throw tooLarge(maxSize);
+      ensureCapacity((int) contentSize);
+      if (zstdDecompressor == null)
+        zstdDecompressor = new ZstdDecompressCtx();
+      int size = zstdDecompressor.decompressByteArray(output, 0, (int) contentSize, body, 0, body.length);
+      if (size != contentSize)
+        throw new DataFormatException("Truncated zstd frame");
+      return size;
+    }
+    catch (ZstdException e)
+    {
+      throw new DataFormatException(e.getMessage());
+    }
+    catch (LinkageError e)
+    {
+      throw new DataFormatException("zstd is not available on this platform");
+    }
+  }
+
+  private int deflate(Deflater deflater, byte[] array, int offset, int length, int size)
+  {
+    deflater.reset();
+    deflater.setInput(array, offset, length);
+    deflater.finish();
+    while (!deflater.finished())
+    {
+      if (size == output.length)
+        ensureCapacity(output.length * 2);
+      size += deflater.deflate(output, size, output.length - size);
+    }
+    return size;
+  }
+
+  private int inflate(Inflater inflater, byte[] array, int offset, int length, int maxSize) throws DataFormatException
+  {
+    inflater.reset();
+    inflater.setInput(array, offset, length);
+    int size = 0;
+    while (!inflater.finished())
+    {
+      if (size == output.length || size == maxSize)
+      {
+        if (size >= maxSize)
+          throw tooLarge(maxSize);
+        ensureCapacity((int) Math.min(maxSize, output.length * 2L));
+      }
+      int inflated = inflater.inflate(output, size, Math.min(output.length, maxSize) - size);
+      if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+        throw new DataFormatException("Truncated deflate stream");
+      size += inflated;
+    }
+    return size;
+  }
+
+  private static int readGzipHeader(byte[] body) throws DataFormatException
+  {
+    if (body.length < GZIP_HEADER || (body[0] & 0xff) != 0x1f || (body[1] & 0xff) != 0x8b || body[2] != Deflater.DEFLATED)
+      throw new DataFormatException("Not in gzip format");
+    int flags = body[3] & 0xff;
+    int offset = GZIP_HEADER;
+    if ((flags & FEXTRA) != 0)
+      offset += 2 + ((body[offset] & 0xff) | ((body[offset + 1] & 0xff) << 8));
+    if ((flags & FNAME) != 0)
+      offset = skipZeroTerminated(body, offset);
+    if ((flags & FCOMMENT) != 0)
+      offset = skipZeroTerminated(body, offset);
+    if ((flags & FHCRC) != 0)
+      offset += 2;
+    return offset;
+  }
+
+  private static int skipZeroTerminated(byte[] body, int offset) throws DataFormatException
+  {
+    while (offset < body.length && body[offset] != 0)
+      offset++;
+    if (offset == body.length)
+      throw new DataFormatException("Truncated gzip header");
+    return offset + 1;
+  }
+
+  private static DataFormatException tooLarge(int maxSize)
+  {
+    return new DataFormatException("Decompressed body exceeds " + maxSize + " bytes");
+  }
+
+  private void releaseOversized()
+  {
+    if (output.length > MAX_RETAINED_CAPACITY)
+      output = new byte[INITIAL_CAPACITY];
+    if (input.length > MAX_RETAINED_CAPACITY)
+      input = new byte[0];
+  }
+
+  private void ensureCapacity(int capacity)
+  {
+    if (output.length < capacity)
+      output = Arrays.copyOf(output, capacity);
+  }
+
+  private static void writeInt(byte[] array, int offset, int value)
+  {
+    array[offset] = (byte) value;
+    array[offset + 1] = (byte) (value >>> 8);
+    array[offset + 2] = (byte) (value >>> 16);
+    array[offset + 3] = (byte) (value >>> 24);
+  }
+
+  private static int readInt(byte[] array, int offset)
+  {
+    return (array[offset] & 0xff) | ((array[offset + 1] & 0xff) << 8) | ((array[offset + 2] & 0xff) << 16) | ((array[offset + 3] & 0xff) << 24);
+  }
+}
@@ -25,8 +25,6 @@
 package com.esri.geoevent.transport.rabbitmq;
 
 import java.io.IOException;
-import java.util.Observable;
-import java.util.Observer;
 import java.util.concurrent.TimeoutException;
 
 import com.esri.ges.framework.i18n.BundleLogger;
@@ -35,19 +33,19 @@ import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.ShutdownListener;
 import com.rabbitmq.client.ShutdownSignalException;
 
-public abstract class RabbitMQComponentBase extends RabbitMQObservable implements Observer
+public abstract class RabbitMQComponentBase extends RabbitMQObservable implements RabbitMQTransportListener
 {
   private static final BundleLogger LOGGER    = BundleLoggerFactory.getLogger(RabbitMQComponentBase.class);
   private RabbitMQConnectionBroker  broker;
   protected RabbitMQExchange        exchange;
   protected volatile boolean        connected = false;
   private String                    details   = "";
-  protected Channel                 channel;
+  protected volatile Channel        channel;
 
-  public RabbitMQComponentBase(RabbitMQConnectionInfo connectionInfo, RabbitMQExchange exchange)
+  public RabbitMQComponentBase(RabbitMQConnectionInfo connectionInfo, RabbitMQConnectionRole role, RabbitMQExchange exchange)
   {
-    broker = new RabbitMQConnectionBroker(connectionInfo);
-    broker.addObserver(this);
+    broker = RabbitMQConnectionBrokerRegistry.acquire(connectionInfo, role);
+    broker.addListener(this);
     this.exchange = exchange;
   }
 
@@ -55,16 +53,8 @@ public abstract class RabbitMQComponentBase extends RabbitMQObservable implement
   {
     try
     {
-      channel.addShutdownListener(new ShutdownListener()
-        {
-          @Override
-          public void shutdownCompleted(ShutdownSignalException cause)
-          {
-            disconnect(cause.getMessage());
-          }
-        });
-
-      channel.exchangeDeclare(exchange.getName(), exchange.getType().toString(), exchange.isDurable(), exchange.isAutoDelete(), null);
+      addShutdownListener(channel);
+      channel.exchangeDeclare(exchange.getName(), exchange.getType().getTypeName(), exchange.isDurable(), exchange.isAutoDelete(), exchange.getArguments());
     }
     catch (IOException e)
     {
@@ -74,6 +64,23 @@ public abstract class RabbitMQComponentBase extends RabbitMQObservable implement
     }
   }
 
+  protected void addShutdownListener(Channel target)
+  {
+    target.addShutdownListener(new ShutdownListener()
+      {
+        @Override
+        public void shutdownCompleted(ShutdownSignalException cause)
+        {
+          disconnect(cause.getMessage());
+        }
+      });
+  }
+
+  protected Channel createChannel() throws RabbitMQTransportException
+  {
+    return broker.createChannel();
+  }
+
   public String getStatusDetails()
   {
     return details;
@@ -90,7 +97,7 @@ public abstract class RabbitMQComponentBase extends RabbitMQObservable implement
     if (broker.isConnected())
     {
       if (channel == null)
-        channel = broker.createChannel();
+        channel = createChannel();
       init();
       details = "";
       connected = true;
@@ -117,7 +124,8 @@ public abstract class RabbitMQComponentBase extends RabbitMQObservable implement
           }
           catch (IOException | TimeoutException e)
           {
-            LOGGER.error("CHANNEL_CLOSE_ERROR", e.getMessage(), e);
+            String msg = LOGGER.translate("CHANNEL_CLOSE_ERROR", e.getMessage());
+            LOGGER.error(msg, e);
           }
         }
         channel = null;
@@ -127,20 +135,31 @@ public abstract class RabbitMQComponentBase extends RabbitMQObservable implement
     details = reason;
   }
 
-  public void shutdown()
+  public void shutdown(String reason)
+  {
+    disconnect(reason);
+    broker.removeListener(this);
+    RabbitMQConnectionBrokerRegistry.release(broker);
+  }
+
+  RabbitMQConnectionBroker getBroker()
   {
-    disconnect("");
-    broker.deleteObserver(this);
-    broker.shutdown();
+    return broker;
+  }
+
+  protected boolean isOwnChannel(Channel other)
+  {
+    return other == channel;
   }
 
   @Override
-  public void update(Observable observable, Object obj)
+  public void onTransportEvent(RabbitMQTransportEvent event)
   {
-    if (obj instanceof RabbitMQTransportEvent)
-    {
-      RabbitMQTransportEvent event = (RabbitMQTransportEvent) obj;
-      notifyObservers(event.getStatus(), event.getDetails());
-    }
+    // the connection is shared with other transports, so only pass on channel events for our own channels
+    if (event.getArgs() != null)
+      for (Object arg : event.getArgs())
+        if (arg instanceof Channel && !isOwnChannel((Channel) arg))
+          return;
+    notifyListeners(event.getStatus(), event.getDetails());
   }
 }
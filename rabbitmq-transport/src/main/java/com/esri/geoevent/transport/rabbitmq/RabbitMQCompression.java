@@ -0,0 +1,58 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+
+package com.esri.geoevent.transport.rabbitmq;
+
+public enum RabbitMQCompression
+{
+  None(null), Gzip("gzip"), Deflate("deflate"), Zstd("zstd");
+
+  private final String contentEncoding;
+
+  private RabbitMQCompression(String contentEncoding)
+  {
+    this.contentEncoding = contentEncoding;
+  }
+
+  public String getContentEncoding()
+  {
+    return contentEncoding;
+  }
+
+  /**
+   * Returns the compression for a message's content-encoding, or null if the body is not compressed with a codec we
+   * know.
+   */
+  public static RabbitMQCompression fromContentEncoding(String contentEncoding)
+  {
+    if (contentEncoding != null)
+    {
+      for (RabbitMQCompression compression : values())
+        if (contentEncoding.equalsIgnoreCase(compression.contentEncoding))
+          return compression;
+    }
+    return null;
+  }
+}
@@ -0,0 +1,338 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+
+package com.esri.geoevent.transport.rabbitmq;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded FIFO buffer that holds at most one delivery per key. A delivery whose key is already buffered takes the
+ * place of the older one, which keeps its position in the queue, so a backlog of updates collapses to the latest
+ * update per entity without an entity losing its turn. Replacing is O(1) through a hash index over the linked nodes.
+ */
+public abstract class RabbitMQConflatingQueue extends AbstractQueue<RabbitMQQueueingConsumer.Delivery> implements BlockingQueue<RabbitMQQueueingConsumer.Delivery>
+{
+  private final RabbitMQConflation conflation;
+  private final int                capacity;
+  private final Map<String, Node>  index    = new HashMap<String, Node>();
+  private final ReentrantLock      lock     = new ReentrantLock();
+  private final Condition          notEmpty = lock.newCondition();
+  private final Condition          notFull  = lock.newCondition();
+  private Node                     head;
+  private Node                     tail;
+  private int                      count;
+
+  public RabbitMQConflatingQueue(int capacity, RabbitMQConflation conflation)
+  {
+    this.capacity = Math.max(1, capacity);
+    this.conflation = conflation;
+  }
+
+  /**
+   * Called with a delivery that has been superseded by a newer one of the same key.
+   */
+  protected abstract void replaced(RabbitMQQueueingConsumer.Delivery delivery);
+
+  @Override
+  public boolean offer(RabbitMQQueueingConsumer.Delivery delivery)
+  {
+    String key = conflation.keyOf(delivery);
+    RabbitMQQueueingConsumer.Delivery previous;
+    lock.lock();
+    try
+    {
+      previous = replace(key, delivery);
+      if (previous == null && !insert(key, delivery))
+        return false;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+    if (previous != null)
+      replaced(previous);
+    return true;
+  }
+
+  @Override
+  public boolean offer(RabbitMQQueueingConsumer.Delivery delivery, long timeout, TimeUnit unit) throws InterruptedException
+  {
+    String key = conflation.keyOf(delivery);
+    long nanos = unit.toNanos(timeout);
+    RabbitMQQueueingConsumer.Delivery previous;
+    lock.lockInterruptibly();
+    try
+    {
+      while ((previous = replace(key, delivery)) == null && !insert(key, delivery))
+      {
+        if (nanos <= 0)
+          return false;
+        nanos = notFull.awaitNanos(nanos);
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+    if (previous != null)
+      replaced(previous);
+    return true;
+  }
+
+  @Override
+  public void put(RabbitMQQueueingConsumer.Delivery delivery) throws InterruptedException
+  {
+    String key = conflation.keyOf(delivery);
+    RabbitMQQueueingConsumer.Delivery previous;
+    lock.lockInterruptibly();
+    try
+    {
+      while ((previous = replace(key, delivery)) == null && !insert(key, delivery))
+        notFull.await();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+    if (previous != null)
+      replaced(previous);
+  }
+
+  /**
+   * @return the buffered delivery of the same key, which the given one has taken the place of, or null
+   */
+  private RabbitMQQueueingConsumer.Delivery replace(String key, RabbitMQQueueingConsumer.Delivery delivery)
+  {
+    Node node = (key != null) ? index.get(key) : null;
+    if (node == null)
+      return null;
+    RabbitMQQueueingConsumer.Delivery previous = node.delivery;
+    node.delivery = delivery;
+    conflation.conflated();
+    return previous;
+  }
+
+  private boolean insert(String key, RabbitMQQueueingConsumer.Delivery delivery)
+  {
+    if (count >= capacity)
+      return false;
+    Node node = new Node(key, delivery);
+    if (key != null)
+      index.put(key, node);
+    if (tail == null)
+      head = node;
+    else
+      tail.next = node;
+    tail = node;
+    count++;
+    notEmpty.signal();
+    return true;
+  }
+
+  @Override
+  public RabbitMQQueueingConsumer.Delivery poll()
+  {
+    lock.lock();
+    try
+    {
+      return (count > 0) ? dequeue() : null;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public RabbitMQQueueingConsumer.Delivery poll(long timeout, TimeUnit unit) throws InterruptedException
+  {
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try
+    {
+      while (count == 0)
+      {
+        if (nanos <= 0)
+          return null;
+        nanos = notEmpty.awaitNanos(nanos);
+      }
+      return dequeue();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public RabbitMQQueueingConsumer.Delivery take() throws InterruptedException
+  {
+    lock.lockInterruptibly();
+    try
+    {
+      while (count == 0)
+        notEmpty.await();
+      return dequeue();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  private RabbitMQQueueingConsumer.Delivery dequeue()
+  {
+    Node node = head;
+    head = node.next;
+    if (head == null)
+      tail = null;
+    if (node.key != null)
+      index.remove(node.key);
+    count--;
+    notFull.signal();
+    return node.delivery;
+  }
+
+  @Override
+  public RabbitMQQueueingConsumer.Delivery peek()
+  {
+    lock.lock();
+    try
+    {
+      return (head != null) ? head.delivery : null;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int size()
+  {
+    lock.lock();
+    try
+    {
+      return count;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int remainingCapacity()
+  {
+    return capacity - size();
+  }
+
+  @Override
+  public void clear()
+  {
+    lock.lock();
+    try
+    {
+      head = null;
+      tail = null;
+      index.clear();
+      count = 0;
+      notFull.signalAll();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int drainTo(Collection<? super RabbitMQQueueingConsumer.Delivery> target)
+  {
+    return drainTo(target, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super RabbitMQQueueingConsumer.Delivery> target, int maxElements)
+  {
+    lock.lock();
+    try
+    {
+      int drained = 0;
+      while (count > 0 && drained < maxElements)
+      {
+        target.add(dequeue());
+        drained++;
+      }
+      return drained;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Iterates over a snapshot of the buffered deliveries.
+   */
+  @Override
+  public Iterator<RabbitMQQueueingConsumer.Delivery> iterator()
+  {
+    List<RabbitMQQueueingConsumer.Delivery> snapshot = new ArrayList<RabbitMQQueueingConsumer.Delivery>();
+    lock.lock();
+    try
+    {
+      for (Node node = head; node != null; node = node.next)
+        snapshot.add(node.delivery);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+    return snapshot.iterator();
+  }
+
+  private static class Node
+  {
+    private final String                      key;
+    private RabbitMQQueueingConsumer.Delivery delivery;
+    private Node                              next;
+
+    private Node(String key, RabbitMQQueueingConsumer.Delivery delivery)
+    {
+      this.key = key;
+      this.delivery = delivery;
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+
+package com.esri.geoevent.transport.rabbitmq;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.rabbitmq.client.BasicProperties;
+
+/**
+ * Tells which entity a delivery is about, so that a {@link RabbitMQConflatingQueue} keeps only the latest delivery of
+ * each. The key is either a field of the message body, with the same field naming as the outbound routing key
+ * placeholders, or a message header. Deliveries without a key are never conflated, nor are coalesced ones.
+ */
+public class RabbitMQConflation
+{
+  private final RabbitMQConflationMode mode;
+  private final String                 header;
+  private final RabbitMQFieldExtractor field;
+  private final LongAdder              conflated;
+
+  /**
+   * @param conflated counts the replaced deliveries, shared by the consumers of a transport
+   */
+  public RabbitMQConflation(RabbitMQConflationMode mode, String key, byte delimiter, LongAdder conflated)
+  {
+    this.mode = mode;
+    this.header = (key != null) ? key.trim() : "";
+    this.field = RabbitMQConflationMode.Field.equals(mode) ? new RabbitMQFieldExtractor(key, delimiter) : null;
+    this.conflated = conflated;
+  }
+
+  public String keyOf(RabbitMQQueueingConsumer.Delivery delivery)
+  {
+    BasicProperties properties = delivery.getProperties();
+    Map<String, Object> headers = (properties != null) ? properties.getHeaders() : null;
+    // a coalesced message carries the records of many entities, replacing it would lose all but one of them
+    if (headers != null && headers.containsKey(RabbitMQCoalescer.RECORD_SEPARATOR_HEADER))
+      return null;
+    if (field != null)
+    {
+      // compressed bodies cannot be looked into
+      if (properties != null && properties.getContentEncoding() != null)
+        return null;
+      return field.extract(ByteBuffer.wrap(delivery.getBody()));
+    }
+    Object value = (headers != null) ? headers.get(header) : null;
+    return (value != null) ? value.toString() : null;
+  }
+
+  public void conflated()
+  {
+    conflated.increment();
+  }
+}
@@ -26,6 +26,7 @@ package com.esri.geoevent.transport.rabbitmq;
 
 import com.esri.ges.framework.i18n.BundleLogger;
 import com.esri.ges.framework.i18n.BundleLoggerFactory;
+import com.rabbitmq.client.Address;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
@@ -36,33 +37,51 @@ import net.jodah.lyra.ConnectionOptions;
 import net.jodah.lyra.Connections;
 import net.jodah.lyra.config.Config;
 import net.jodah.lyra.config.RecoveryPolicies;
+import net.jodah.lyra.config.RecoveryPolicy;
+import net.jodah.lyra.util.Duration;
 
 import java.io.IOException;
-import java.util.Observable;
-import java.util.Observer;
-import java.util.concurrent.TimeoutException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
-public class RabbitMQConnectionBroker extends RabbitMQObservable implements Observer
+public class RabbitMQConnectionBroker extends RabbitMQObservable implements RabbitMQTransportListener
 {
-  private static final BundleLogger  LOGGER  = BundleLoggerFactory.getLogger(RabbitMQComponentBase.class);
-  private Connection                 connection;
+  private static final BundleLogger  LOGGER          = BundleLoggerFactory.getLogger(RabbitMQComponentBase.class);
+  private static final long          INITIAL_BACKOFF = 1000;
+  private static final long          MAX_BACKOFF     = 60000;
+  private static final int           PROBE_TIMEOUT   = 250;
+  private volatile Connection        connection;
   private RabbitMQConnectionListener connectionListener;
   private RabbitMQChannelListener    channelListener;
   private RabbitMQConsumerListener   consumerListener;
   private RabbitMQConnectionMonitor  monitor;
-  private int                        timeout = 5000;
+  private RabbitMQConnectionRole     role;
+  private int                        timeout         = 5000;
 
-  public RabbitMQConnectionBroker(RabbitMQConnectionInfo connectionInfo)
+  RabbitMQConnectionBroker(RabbitMQConnectionInfo connectionInfo, RabbitMQConnectionRole role)
   {
+    this.role = role;
     connectionListener = new RabbitMQConnectionListener(connectionInfo);
-    connectionListener.addObserver(this);
+    connectionListener.addListener(this);
     channelListener = new RabbitMQChannelListener();
-    channelListener.addObserver(this);
+    channelListener.addListener(this);
     consumerListener = new RabbitMQConsumerListener();
-    consumerListener.addObserver(this);
+    consumerListener.addListener(this);
     monitor = new RabbitMQConnectionMonitor(connectionInfo);
-    monitor.addObserver(this);
-    new Thread(monitor).start();
+    monitor.addListener(this);
+    monitor.schedule(0);
   }
 
   public Channel createChannel() throws RabbitMQTransportException
@@ -91,13 +110,13 @@ public class RabbitMQConnectionBroker extends RabbitMQObservable implements Obse
     return connection != null && connection.isOpen();
   }
 
-  public void shutdown()
+  void shutdown()
   {
-    monitor.deleteObserver(this);
+    monitor.removeListener(this);
     monitor.stop();
-    connectionListener.deleteObserver(this);
-    channelListener.deleteObserver(this);
-    consumerListener.deleteObserver(this);
+    connectionListener.removeListener(this);
+    channelListener.removeListener(this);
+    consumerListener.removeListener(this);
     if (isConnected())
     {
       try
@@ -114,16 +133,22 @@ public class RabbitMQConnectionBroker extends RabbitMQObservable implements Obse
         connection = null;
       }
     }
+    else if (connection != null)
+    {
+      // stops Lyra from recovering a connection nobody uses anymore
+      connection.abort(timeout);
+      connection = null;
+    }
   }
 
   @Override
-  public void update(Observable observable, Object obj)
+  public void onTransportEvent(RabbitMQTransportEvent event)
   {
-    if (obj instanceof RabbitMQTransportEvent)
-    {
-      RabbitMQTransportEvent event = (RabbitMQTransportEvent) obj;
-      notifyObservers(event.getStatus(), event.getDetails());
-    }
+    if (event.getArgs() != null)
+      for (Object arg : event.getArgs())
+        if (arg instanceof Connection)
+          monitor.onRecoveryEvent(event.getStatus());
+    notifyListeners(event.getStatus(), event.getDetails());
   }
 
   public RabbitMQConnectionInfo getConnectionInfo()
@@ -131,196 +156,293 @@ public class RabbitMQConnectionBroker extends RabbitMQObservable implements Obse
     return monitor.connectionInfo;
   }
 
+  public RabbitMQConnectionRole getRole()
+  {
+    return role;
+  }
+
+  public long getConnectAttempts()
+  {
+    return monitor.attempts.sum();
+  }
+
+  public long getConnectFailures()
+  {
+    return monitor.failures.sum();
+  }
+
+  public int getConsecutiveConnectFailures()
+  {
+    return monitor.consecutiveFailures;
+  }
+
+  public long getNextReconnectDelay()
+  {
+    return monitor.nextDelay;
+  }
+
+  public String getLastConnectError()
+  {
+    return monitor.lastError;
+  }
+
+  /**
+   * Opens the connection and reopens it when Lyra gives up on it. Attempts are timed on the shared scheduler with
+   * exponential backoff and jitter, so that connectors do not all hit a restarted server at the same moment, and run
+   * on the event executor because connecting blocks.
+   */
   private class RabbitMQConnectionMonitor extends RabbitMQObservable implements Runnable
   {
-    private RabbitMQConnectionInfo connectionInfo;
-    private volatile boolean       running    = false;
-    private volatile boolean       errorState = false;
+    private final RabbitMQConnectionInfo connectionInfo;
+    private final Config                 config;
+    private final LongAdder              attempts            = new LongAdder();
+    private final LongAdder              failures            = new LongAdder();
+    private ConnectionFactory            factory;
+    private ScheduledFuture<?>           pending;
+    private volatile boolean             running             = true;
+    private volatile boolean             recovering          = false;
+    private volatile boolean             errorState          = false;
+    private volatile int                 consecutiveFailures = 0;
+    private volatile long                nextDelay           = 0;
+    private volatile String              lastError;
 
     public RabbitMQConnectionMonitor(RabbitMQConnectionInfo connectionInfo)
     {
       this.connectionInfo = connectionInfo;
+      RecoveryPolicy recoveryPolicy = RecoveryPolicies.recoverAlways().withBackoff(Duration.millis(INITIAL_BACKOFF), Duration.millis(MAX_BACKOFF));
+      config = new Config().withRecoveryPolicy(recoveryPolicy).withChannelListeners(channelListener).withConnectionListeners(connectionListener).withConsumerListeners(consumerListener).withConsumerRecovery(true);
     }
 
-    @Override
-    public void run()
+    synchronized void schedule(long delay)
     {
-      running = true;
-      while (running)
-      {
-        if (!isConnected())
+      // a single attempt is pending at any time
+      if (!running || pending != null)
+        return;
+      nextDelay = delay;
+      pending = RabbitMQScheduler.getExecutor().schedule(new Runnable()
         {
-          try
-          {
-            ConnectionFactory factory = new ConnectionFactory();
-            factory.setHost(connectionInfo.getHost());
-            factory.setPort(connectionInfo.getPort());
-            if (connectionInfo.getVirtualHost() != null)
-              factory.setVirtualHost(connectionInfo.getVirtualHost());
-            if (connectionInfo.isSsl())
-              factory.useSslProtocol();
-            if (connectionInfo.getUsername() != null && connectionInfo.getPassword() != null)
-            {
-              factory.setUsername(connectionInfo.getUsername());
-              factory.setPassword(connectionInfo.getPassword());
-            }
-            ConnectionOptions options = new ConnectionOptions().withConnectionFactory(factory);
-            Config config = new Config().withRecoveryPolicy(RecoveryPolicies.recoverAlways()).withChannelListeners(channelListener).withConnectionListeners(connectionListener).withConsumerListeners(consumerListener).withConsumerRecovery(true);
-            connection = Connections.create(options, config);
-            connection.addShutdownListener(new ShutdownListener()
-              {
-                @Override
-                public void shutdownCompleted(ShutdownSignalException cause)
-                {
-                  LOGGER.error("CONNECTION_BROKEN_WITH_CAUSE_ERROR", connectionInfo.getHost(), cause.getMessage());
-                  notifyObservers(RabbitMQConnectionStatus.DISCONNECTED, cause.getMessage());
-                }
-              });
-            errorState = false;
-            String msg = LOGGER.translate("CONNECTION_ESTABLISH_SUCCESS", connectionInfo.getHost());
-            LOGGER.info(msg);
-            notifyObservers(RabbitMQConnectionStatus.CREATED, msg);
-          }
-          catch (Throwable th)
+          @Override
+          public void run()
           {
-            // only log the error message once
-            if (!errorState)
-            {
-              String msg = LOGGER.translate("CONNECTION_ESTABLISH_FAILURE", connectionInfo.getHost(), th.getMessage());
-              LOGGER.error(msg, th);
-              notifyObservers(RabbitMQConnectionStatus.CREATION_FAILED, msg);
-              errorState = true;
-            }
+            RabbitMQScheduler.getEventExecutor().execute(RabbitMQConnectionMonitor.this);
           }
-        }
-        sleep();
-      }
+        }, delay, TimeUnit.MILLISECONDS);
     }
 
-    private void sleep()
+    private long backoff()
     {
-      try
-      {
-        Thread.sleep(timeout);
-      }
-      catch (InterruptedException e)
-      {
-        ;
-      }
+      long ceiling = Math.min(MAX_BACKOFF, INITIAL_BACKOFF << Math.min(consecutiveFailures, 16));
+      return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
     }
 
-    public void stop()
+    void onRecoveryEvent(RabbitMQConnectionStatus status)
     {
-      running = false;
-    }
-  }
-
-  public abstract static class RabbitMQComponentBase extends RabbitMQObservable implements Observer
-  {
-    private RabbitMQConnectionBroker broker;
-    protected RabbitMQExchange       exchange;
-    protected volatile boolean       connected = false;
-    private String                   details   = "";
-    protected Channel                channel;
-
-    public RabbitMQComponentBase(RabbitMQConnectionInfo connectionInfo, RabbitMQExchange exchange)
-    {
-      broker = new RabbitMQConnectionBroker(connectionInfo);
-      broker.addObserver(this);
-      this.exchange = exchange;
+      switch (status)
+      {
+        case RECOVERY_STARTED:
+          recovering = true;
+          break;
+        case RECOVERY:
+        case RECOVERY_COMPLETED:
+          recovering = false;
+          consecutiveFailures = 0;
+          break;
+        case RECOVERY_FAILED:
+          recovering = false;
+          schedule(backoff());
+          break;
+        default:
+          break;
+      }
     }
 
-    protected synchronized void init() throws RabbitMQTransportException
+    @Override
+    public void run()
     {
+      synchronized (this)
+      {
+        pending = null;
+      }
+      // Lyra owns the connection while it is recovering, opening another one here would leave two behind
+      if (!running || isConnected() || recovering)
+        return;
+      attempts.increment();
       try
       {
-        channel.addShutdownListener(new ShutdownListener()
+        discard(connection);
+        if (factory == null)
+          factory = createFactory();
+        ConnectionOptions options = new ConnectionOptions().withConnectionFactory(factory).withAddresses(rank(connectionInfo.getAddresses()));
+        final Connection connection = Connections.create(options, config);
+        if (!running)
+        {
+          discard(connection);
+          return;
+        }
+        connection.addShutdownListener(new ShutdownListener()
           {
             @Override
             public void shutdownCompleted(ShutdownSignalException cause)
             {
-              disconnect(cause.getMessage());
+              LOGGER.error("CONNECTION_BROKEN_WITH_CAUSE_ERROR", connectionInfo.getHost(), cause.getMessage());
+              notifyListeners(RabbitMQConnectionStatus.DISCONNECTED, cause.getMessage());
+              // give Lyra a chance to start recovering before checking on the connection again
+              if (!cause.isInitiatedByApplication())
+                schedule(timeout);
             }
           });
-
-        channel.exchangeDeclare(exchange.getName(), exchange.getType().toString(), exchange.isDurable(), exchange.isAutoDelete(), null);
+        RabbitMQConnectionBroker.this.connection = connection;
+        errorState = false;
+        consecutiveFailures = 0;
+        nextDelay = 0;
+        String msg = LOGGER.translate("CONNECTION_ESTABLISH_SUCCESS", connectionInfo.getHost());
+        LOGGER.info(msg);
+        notifyListeners(RabbitMQConnectionStatus.CREATED, msg);
       }
-      catch (IOException e)
+      catch (Throwable th)
       {
-        String msg = LOGGER.translate("EXCHANGE_CREATE_ERROR", e.getMessage());
-        LOGGER.error(msg, e);
-        throw new RabbitMQTransportException(msg);
+        failures.increment();
+        lastError = th.getMessage();
+        // only log the error message once
+        if (!errorState)
+        {
+          String msg = LOGGER.translate("CONNECTION_ESTABLISH_FAILURE", connectionInfo.getHost(), th.getMessage());
+          LOGGER.error(msg, th);
+          notifyListeners(RabbitMQConnectionStatus.CREATION_FAILED, msg);
+          errorState = true;
+        }
+        consecutiveFailures++;
+        schedule(backoff());
       }
     }
 
-    public String getStatusDetails()
-    {
-      return details;
-    }
-
-    public boolean isConnected()
-    {
-      return connected;
-    }
-
-    protected synchronized void connect() throws RabbitMQTransportException
+    /**
+     * Orders the cluster nodes by the time a TCP connect to them takes, unreachable ones last. The connection goes to
+     * the nearest node, and both the client and Lyra fail over down the list without waiting for the next attempt.
+     */
+    private Address[] rank(Address[] addresses)
     {
-      disconnect(null);
-      if (broker.isConnected())
-      {
-        if (channel == null)
-          channel = broker.createChannel();
-        init();
-        details = "";
-        connected = true;
-      }
-      else
-      {
-        details = LOGGER.translate("CONNECTION_BROKEN_ERROR", broker.monitor.connectionInfo.getHost());
-        LOGGER.error(details);
-        throw new RabbitMQTransportException(details);
-      }
+      if (addresses.length < 2)
+        return addresses;
+      final Map<Address, Long> latencies = probe(addresses);
+      // the sort is stable, so nodes that are equally close keep their configured order
+      Arrays.sort(addresses, new Comparator<Address>()
+        {
+          @Override
+          public int compare(Address a, Address b)
+          {
+            return Long.compare(latencies.get(a), latencies.get(b));
+          }
+        });
+      return addresses;
     }
 
-    protected synchronized void disconnect(String reason)
+    /**
+     * Connects to all nodes at once without blocking and waits at most PROBE_TIMEOUT for them together, so that nodes
+     * that are down delay a failover by a fraction of a second however many of them there are. Nodes that do not
+     * answer in time get Long.MAX_VALUE.
+     */
+    private Map<Address, Long> probe(Address[] addresses)
     {
-      if (connected)
+      Map<Address, Long> latencies = new HashMap<Address, Long>();
+      for (Address address : addresses)
+        latencies.put(address, Long.MAX_VALUE);
+      long start = System.nanoTime();
+      try (Selector selector = Selector.open())
       {
-        if (channel != null)
+        try
         {
-          if (channel.isOpen())
+          int pending = 0;
+          for (Address address : addresses)
           {
+            SocketChannel channel = SocketChannel.open();
             try
+            {
+              channel.configureBlocking(false);
+              if (channel.connect(new InetSocketAddress(address.getHost(), address.getPort())))
+              {
+                latencies.put(address, System.nanoTime() - start);
+                channel.close();
+              }
+              else
+              {
+                channel.register(selector, SelectionKey.OP_CONNECT, address);
+                pending++;
+              }
+            }
+            catch (IOException | UnresolvedAddressException e)
             {
               channel.close();
             }
-            catch (IOException | TimeoutException e)
+          }
+          long deadline = start + TimeUnit.MILLISECONDS.toNanos(PROBE_TIMEOUT);
+          while (pending > 0)
+          {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0)
+              break;
+            selector.select(remaining);
+            for (SelectionKey key : selector.selectedKeys())
             {
-              String msg = LOGGER.translate("CHANNEL_CLOSE_ERROR", e.getMessage());
-              LOGGER.error(msg, e);
+              SocketChannel channel = (SocketChannel) key.channel();
+              try
+              {
+                if (channel.finishConnect())
+                  latencies.put((Address) key.attachment(), System.nanoTime() - start);
+              }
+              catch (IOException e)
+              {
+                // refused, ranked last
+              }
+              channel.close();
+              pending--;
             }
+            selector.selectedKeys().clear();
           }
-          channel = null;
         }
+        finally
+        {
+          for (SelectionKey key : new ArrayList<SelectionKey>(selector.keys()))
+            key.channel().close();
+        }
+      }
+      catch (IOException e)
+      {
+        LOGGER.debug("CONNECTION_PROBE_ERROR", e.getMessage());
       }
-      connected = false;
-      details = reason;
+      return latencies;
     }
 
-    public void shutdown(String reason)
+    private ConnectionFactory createFactory() throws Exception
     {
-      disconnect(reason);
-      broker.deleteObserver(this);
-      broker.shutdown();
+      ConnectionFactory factory = new ConnectionFactory();
+      factory.setHost(connectionInfo.getHost());
+      factory.setPort(connectionInfo.getPort());
+      if (connectionInfo.getVirtualHost() != null)
+        factory.setVirtualHost(connectionInfo.getVirtualHost());
+      if (connectionInfo.isSsl())
+        factory.useSslProtocol();
+      if (connectionInfo.getUsername() != null && connectionInfo.getPassword() != null)
+      {
+        factory.setUsername(connectionInfo.getUsername());
+        factory.setPassword(connectionInfo.getPassword());
+      }
+      return factory;
     }
 
-    @Override
-    public void update(Observable observable, Object obj)
+    private void discard(Connection connection)
     {
-      if (obj instanceof RabbitMQTransportEvent)
+      if (connection != null)
+        connection.abort(timeout);
+    }
+
+    public synchronized void stop()
+    {
+      running = false;
+      if (pending != null)
       {
-        RabbitMQTransportEvent event = (RabbitMQTransportEvent) obj;
-        notifyObservers(event.getStatus(), event.getDetails());
+        pending.cancel(false);
+        pending = null;
       }
     }
   }
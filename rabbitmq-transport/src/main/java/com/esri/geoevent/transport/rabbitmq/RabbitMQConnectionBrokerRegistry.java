@@ -0,0 +1,110 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+
+package com.esri.geoevent.transport.rabbitmq;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hands out connection brokers shared by every transport that connects to the same RabbitMQ server with the same
+ * credentials. Publishers and consumers are kept on separate connections so that broker flow control applied to a
+ * publishing connection never stalls consumption.
+ */
+public final class RabbitMQConnectionBrokerRegistry
+{
+  private static final Map<BrokerKey, BrokerEntry> brokers = new HashMap<BrokerKey, BrokerEntry>();
+
+  private RabbitMQConnectionBrokerRegistry()
+  {
+  }
+
+  public static synchronized RabbitMQConnectionBroker acquire(RabbitMQConnectionInfo connectionInfo, RabbitMQConnectionRole role)
+  {
+    BrokerKey key = new BrokerKey(connectionInfo, role);
+    BrokerEntry entry = brokers.get(key);
+    if (entry == null)
+    {
+      entry = new BrokerEntry(new RabbitMQConnectionBroker(connectionInfo, role));
+      brokers.put(key, entry);
+    }
+    entry.references++;
+    return entry.broker;
+  }
+
+  public static void release(RabbitMQConnectionBroker broker)
+  {
+    synchronized (RabbitMQConnectionBrokerRegistry.class)
+    {
+      BrokerKey key = new BrokerKey(broker.getConnectionInfo(), broker.getRole());
+      BrokerEntry entry = brokers.get(key);
+      if (entry == null || entry.broker != broker || --entry.references > 0)
+        return;
+      brokers.remove(key);
+    }
+    // closing the connection can block, so do it outside of the registry lock
+    broker.shutdown();
+  }
+
+  private static class BrokerEntry
+  {
+    private final RabbitMQConnectionBroker broker;
+    private int                            references = 0;
+
+    private BrokerEntry(RabbitMQConnectionBroker broker)
+    {
+      this.broker = broker;
+    }
+  }
+
+  private static class BrokerKey
+  {
+    private final RabbitMQConnectionInfo connectionInfo;
+    private final RabbitMQConnectionRole role;
+
+    private BrokerKey(RabbitMQConnectionInfo connectionInfo, RabbitMQConnectionRole role)
+    {
+      this.connectionInfo = connectionInfo;
+      this.role = role;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return 31 * connectionInfo.hashCode() + role.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if (this == obj)
+        return true;
+      if (!(obj instanceof BrokerKey))
+        return false;
+      BrokerKey other = (BrokerKey) obj;
+      return role == other.role && connectionInfo.equals(other.connectionInfo);
+    }
+  }
+}
@@ -24,11 +24,16 @@
 
 package com.esri.geoevent.transport.rabbitmq;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
 import com.esri.ges.core.validation.Validatable;
 import com.esri.ges.core.validation.ValidationException;
 import com.esri.ges.framework.i18n.BundleLogger;
 import com.esri.ges.framework.i18n.BundleLoggerFactory;
 import com.esri.ges.util.Converter;
+import com.rabbitmq.client.Address;
 
 public class RabbitMQConnectionInfo implements Validatable
 {
@@ -39,6 +44,7 @@ public class RabbitMQConnectionInfo implements Validatable
 	private String										username		= null;
 	private String										password		= null;
 	private boolean										ssl					= true;
+	private Address[]									addresses;
 
 	public RabbitMQConnectionInfo(String host, String port, String virtualHost, String username, String password, String ssl)
 	{
@@ -48,6 +54,7 @@ public class RabbitMQConnectionInfo implements Validatable
 		this.username = username;
     this.password = password;
 		this.ssl = Converter.convertToBoolean(ssl, false);
+		this.addresses = parseAddresses(host, this.port);
 	}
 
 	public String getHost()
@@ -60,6 +67,15 @@ public class RabbitMQConnectionInfo implements Validatable
 		return port;
 	}
 
+	/**
+	 * The nodes listed in the host property, which may name several cluster nodes separated by commas, each with an
+	 * optional port of its own.
+	 */
+	public Address[] getAddresses()
+	{
+		return addresses.clone();
+	}
+
 	public String getVirtualHost()
 	{
 		return virtualHost;
@@ -87,5 +103,54 @@ public class RabbitMQConnectionInfo implements Validatable
 			throw new ValidationException(LOGGER.translate("CONNECTION_HOST_VALIDATE_ERROR"));
 		if (port <= 0)
 			throw new ValidationException(LOGGER.translate("CONNECTION_PORT_VALIDATE_ERROR"));
+		if (addresses.length == 0)
+			throw new ValidationException(LOGGER.translate("CONNECTION_HOST_VALIDATE_ERROR"));
+		for (Address address : addresses)
+			if (address.getPort() <= 0)
+				throw new ValidationException(LOGGER.translate("CONNECTION_PORT_VALIDATE_ERROR"));
+	}
+
+	private static Address[] parseAddresses(String hosts, int defaultPort)
+	{
+		List<Address> addresses = new ArrayList<Address>();
+		if (hosts != null)
+		{
+			for (String entry : hosts.split(","))
+			{
+				entry = entry.trim();
+				if (entry.isEmpty())
+					continue;
+				String host = entry;
+				int port = defaultPort;
+				// an IPv6 address needs brackets when it comes with a port, e.g. [::1]:5672
+				int colon = entry.startsWith("[") ? entry.indexOf("]:") + 1 : (entry.indexOf(':') == entry.lastIndexOf(':') ? entry.indexOf(':') : -1);
+				if (colon > 0)
+				{
+					host = entry.substring(0, colon);
+					port = Converter.convertToInteger(entry.substring(colon + 1), -1);
+				}
+				if (host.startsWith("[") && host.endsWith("]"))
+					host = host.substring(1, host.length() - 1);
+				addresses.add(new Address(host, port));
+			}
+		}
+		return addresses.toArray(new Address[addresses.size()]);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return Objects.hash(host, port, virtualHost, username, password, ssl);
+	}
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (this == obj)
+			return true;
+		if (!(obj instanceof RabbitMQConnectionInfo))
+			return false;
+		RabbitMQConnectionInfo other = (RabbitMQConnectionInfo) obj;
+		return port == other.port && ssl == other.ssl && Objects.equals(host, other.host) && Objects.equals(virtualHost, other.virtualHost) && Objects.equals(username, other.username) && Objects.equals(password, other.password);
 	}
 }
@@ -25,22 +25,65 @@
 package com.esri.geoevent.transport.rabbitmq;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.esri.ges.framework.i18n.BundleLogger;
 import com.esri.ges.framework.i18n.BundleLoggerFactory;
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.Channel;
 
-public class RabbitMQConsumer extends RabbitMQConnectionBroker.RabbitMQComponentBase
+public class RabbitMQConsumer extends RabbitMQComponentBase
 {
-  private static final BundleLogger LOGGER = BundleLoggerFactory.getLogger(RabbitMQConsumer.class);
-  private RabbitMQQueueingConsumer  consumer;
-  private RabbitMQQueue             queue;
-  private int                       prefetchCount;
+  private static final BundleLogger               LOGGER          = BundleLoggerFactory.getLogger(RabbitMQConsumer.class);
+  private static final String                     SHARD_WEIGHT    = "1";
+  private volatile List<RabbitMQQueueingConsumer> consumers       = Collections.emptyList();
+  private RabbitMQQueue                           queue;
+  private int                                     prefetchCount;
+  private int                                     concurrency;
+  private int                                     bufferCapacity;
+  private RabbitMQAcknowledgementMode             ackMode;
+  private int                                     ackBatchSize;
+  private long                                    ackInterval;
+  private ScheduledFuture<?>                      ackFlushTask;
+  private RabbitMQDeliveryListener                deliveryListener;
+  private List<String>                            geohashPrefixes = Collections.emptyList();
+  private int                                     shardCount;
+  private long                                    shardHeartbeatInterval;
+  private RabbitMQShardCoordinator                coordinator;
+  private Channel                                 coordinatorChannel;
+  private final Map<Integer, String>              shardTags       = new HashMap<Integer, String>();
+  private RabbitMQSheddingPolicy                  sheddingPolicy  = RabbitMQSheddingPolicy.None;
+  private RabbitMQSheddingTrigger                 sheddingTrigger;
+  private long                                    sheddingHighWatermark;
+  private long                                    sheddingLowWatermark;
+  private int                                     sheddingSampleRate;
+  private final LongAdder                         shed            = new LongAdder();
+  private RabbitMQConflationMode                  conflationMode  = RabbitMQConflationMode.None;
+  private String                                  conflationKey;
+  private byte                                    conflationDelimiter;
+  private final LongAdder                         conflated       = new LongAdder();
 
   public RabbitMQConsumer(RabbitMQConnectionInfo connectionInfo, RabbitMQExchange exchange, RabbitMQQueue queue)
   {
-    super(connectionInfo, exchange);
+    super(connectionInfo, RabbitMQConnectionRole.Consumer, exchange);
     this.queue = queue;
-    this.prefetchCount = 1;
+    this.prefetchCount = 250;
+    this.concurrency = 1;
+    this.bufferCapacity = 1000;
+    this.ackMode = RabbitMQAcknowledgementMode.Auto;
+    this.ackBatchSize = 100;
+    this.ackInterval = 1000;
   }
 
   public void setPrefetchCount(int value)
@@ -48,15 +91,153 @@ public class RabbitMQConsumer extends RabbitMQConnectionBroker.RabbitMQComponent
     this.prefetchCount = value;
   }
 
+  public void setConcurrency(int value)
+  {
+    this.concurrency = Math.max(1, value);
+  }
+
+  public int getConcurrency()
+  {
+    return concurrency;
+  }
+
+  public void setBufferCapacity(int value)
+  {
+    this.bufferCapacity = Math.max(1, value);
+  }
+
+  public void setAcknowledgementMode(RabbitMQAcknowledgementMode value)
+  {
+    this.ackMode = value;
+  }
+
+  public void setAckBatchSize(int value)
+  {
+    this.ackBatchSize = Math.max(1, value);
+  }
+
+  public void setAckInterval(long value)
+  {
+    this.ackInterval = Math.max(1, value);
+  }
+
+  /**
+   * Additionally subscribes the queue to records published in {@link RabbitMQRoutingMode#Geohash} routing mode whose
+   * location falls within one of the given geohash prefixes.
+   */
+  public void setGeohashPrefixes(List<String> prefixes)
+  {
+    this.geohashPrefixes = prefixes;
+  }
+
+  /**
+   * Switches to sharded consumption: instead of the queue itself, shardCount queues named after it are bound to a
+   * consistent hash exchange, and the cluster nodes split them among each other so that every shard is consumed by a
+   * single node at a time.
+   */
+  public void setSharding(int shardCount, long heartbeatInterval)
+  {
+    this.shardCount = Math.max(0, shardCount);
+    this.shardHeartbeatInterval = heartbeatInterval;
+  }
+
+  /**
+   * Discards deliveries while the buffer of a consumer is overloaded, see {@link RabbitMQLoadShedder}.
+   */
+  public void setLoadShedding(RabbitMQSheddingPolicy policy, RabbitMQSheddingTrigger trigger, long highWatermark, long lowWatermark, int sampleRate)
+  {
+    this.sheddingPolicy = policy;
+    this.sheddingTrigger = trigger;
+    this.sheddingHighWatermark = highWatermark;
+    this.sheddingLowWatermark = lowWatermark;
+    this.sheddingSampleRate = sampleRate;
+  }
+
+  public long getShedCount()
+  {
+    return shed.sum();
+  }
+
+  public boolean isShedding()
+  {
+    for (RabbitMQQueueingConsumer consumer : consumers)
+      if (consumer.isShedding())
+        return true;
+    return false;
+  }
+
+  /**
+   * Keeps only the latest buffered delivery per key, see {@link RabbitMQConflatingQueue}. Every consumer conflates its
+   * own buffer, so with a concurrency above one the same key may still be pending once per consumer.
+   */
+  public void setConflation(RabbitMQConflationMode mode, String key, byte delimiter)
+  {
+    this.conflationMode = mode;
+    this.conflationKey = key;
+    this.conflationDelimiter = delimiter;
+  }
+
+  public long getConflatedCount()
+  {
+    return conflated.sum();
+  }
+
+  public int getOwnedShards()
+  {
+    RabbitMQShardCoordinator coordinator = this.coordinator;
+    return (coordinator != null) ? coordinator.getOwnedShards() : 0;
+  }
+
+  public int getClusterMembers()
+  {
+    RabbitMQShardCoordinator coordinator = this.coordinator;
+    return (coordinator != null) ? coordinator.getMembers() : 0;
+  }
+
+  public int getBacklog()
+  {
+    int backlog = 0;
+    for (RabbitMQQueueingConsumer consumer : consumers)
+      backlog += consumer.getBacklog();
+    return backlog;
+  }
+
+  /**
+   * Switches to direct dispatch: deliveries are pushed to the listener from the client's dispatch threads instead of
+   * being buffered for {@link RabbitMQQueueingConsumer#nextDelivery(long)}.
+   */
+  public void setDeliveryListener(RabbitMQDeliveryListener listener)
+  {
+    this.deliveryListener = listener;
+  }
+
   @Override
   protected synchronized void init() throws RabbitMQTransportException
   {
     super.init();
     try
     {
-      channel.queueDeclare(queue.getName(), queue.isDurable(), queue.isExclusive(), queue.isAutoDelete(), null);
-      channel.queueBind(queue.getName(), exchange.getName(), exchange.getRoutingKey());
-      channel.basicQos(prefetchCount);
+      if (shardCount > 0)
+      {
+        // shard queues outlive their consumers, ownership moves between nodes and must not take the messages along
+        Map<String, Object> arguments = new HashMap<String, Object>();
+        if (queue.getArguments() != null)
+          arguments.putAll(queue.getArguments());
+        arguments.put("x-single-active-consumer", true);
+        for (int shard = 0; shard < shardCount; shard++)
+        {
+          String shardQueue = RabbitMQShardCoordinator.shardQueueName(queue.getName(), shard);
+          channel.queueDeclare(shardQueue, queue.isDurable(), false, false, arguments);
+          channel.queueBind(shardQueue, exchange.getName(), SHARD_WEIGHT);
+        }
+      }
+      else
+      {
+        channel.queueDeclare(queue.getName(), queue.isDurable(), queue.isExclusive(), queue.isAutoDelete(), queue.getArguments());
+        channel.queueBind(queue.getName(), exchange.getName(), exchange.getRoutingKey(), exchange.getBindingArguments());
+        for (String prefix : geohashPrefixes)
+          channel.queueBind(queue.getName(), exchange.getName(), RabbitMQGeohashRouter.bindingKey(prefix));
+      }
     }
     catch (IOException e)
     {
@@ -64,65 +245,235 @@ public class RabbitMQConsumer extends RabbitMQConnectionBroker.RabbitMQComponent
       LOGGER.error(msg, e);
       throw new RabbitMQTransportException(msg, e);
     }
-    try
+    // every consumer gets a channel of its own so that deliveries are dispatched in parallel
+    final List<RabbitMQQueueingConsumer> newConsumers = new CopyOnWriteArrayList<RabbitMQQueueingConsumer>();
+    consumers = newConsumers;
+    RabbitMQConflation conflation = RabbitMQConflationMode.None.equals(conflationMode) ? null : new RabbitMQConflation(conflationMode, conflationKey, conflationDelimiter, conflated);
+    for (int i = 0; i < concurrency; i++)
     {
-      consumer = new RabbitMQQueueingConsumer(channel);
-      channel.basicConsume(queue.getName(), true, consumer);
+      Channel consumerChannel = channel;
+      if (i > 0)
+      {
+        consumerChannel = createChannel();
+        addShutdownListener(consumerChannel);
+      }
+      int window = getPrefetchWindow(prefetchCount, bufferCapacity, deliveryListener == null);
+      // acknowledge well before the window is exhausted so that the broker keeps delivering
+      int batchSize = (window > 0) ? Math.min(ackBatchSize, Math.max(1, window / 2)) : ackBatchSize;
+      RabbitMQQueueingConsumer consumer = new RabbitMQQueueingConsumer(consumerChannel, i, bufferCapacity, ackMode, batchSize, deliveryListener, conflation);
+      if (!RabbitMQSheddingPolicy.None.equals(sheddingPolicy))
+        consumer.setLoadShedder(new RabbitMQLoadShedder(sheddingPolicy, sheddingTrigger, sheddingHighWatermark, sheddingLowWatermark, sheddingSampleRate, shed));
+      newConsumers.add(consumer);
+      try
+      {
+        // a sharded consumer subscribes to several queues on its channel, the window has to span all of them
+        consumerChannel.basicQos(window, shardCount > 0);
+      }
+      catch (IOException e)
+      {
+        String msg = LOGGER.translate("CHANNEL_INIT_ERROR", e.getMessage());
+        LOGGER.error(msg, e);
+        throw new RabbitMQTransportException(msg, e);
+      }
+      if (shardCount > 0)
+        continue;
+      try
+      {
+        consumerChannel.basicConsume(queue.getName(), false, consumer);
+      }
+      catch (IOException e)
+      {
+        String msg = LOGGER.translate("CONSUMER_INIT_ERROR", e.getMessage());
+        LOGGER.error(msg, e);
+        throw new RabbitMQTransportException(msg, e);
+      }
     }
-    catch (IOException e)
+    if (shardCount > 0)
     {
-      String msg = LOGGER.translate("CONSUMER_INIT_ERROR", e.getMessage());
-      LOGGER.error(msg, e);
-      throw new RabbitMQTransportException(msg, e);
+      coordinator = new RabbitMQShardCoordinator(queue.getName(), shardCount, shardHeartbeatInterval)
+        {
+          @Override
+          protected void assign(Set<Integer> shards)
+          {
+            RabbitMQConsumer.this.assign(this, shards);
+          }
+        };
+      try
+      {
+        coordinatorChannel = createChannel();
+        addShutdownListener(coordinatorChannel);
+        coordinator.start(coordinatorChannel);
+      }
+      catch (IOException e)
+      {
+        String msg = LOGGER.translate("CONSUMER_INIT_ERROR", e.getMessage());
+        LOGGER.error(msg, e);
+        throw new RabbitMQTransportException(msg, e);
+      }
     }
+    ackFlushTask = RabbitMQScheduler.getExecutor().scheduleWithFixedDelay(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          for (RabbitMQQueueingConsumer consumer : newConsumers)
+            consumer.flush();
+        }
+      }, ackInterval, ackInterval, TimeUnit.MILLISECONDS);
   }
 
-  public byte[] receive() throws RabbitMQTransportException
+  private synchronized void assign(RabbitMQShardCoordinator from, Set<Integer> shards)
   {
-    RabbitMQQueueingConsumer.Delivery delivery = null;
+    if (from != coordinator)
+      return;
+    List<RabbitMQQueueingConsumer> current = consumers;
     try
     {
-      delivery = consumer.nextDelivery(100);
+      // the next owner of a revoked shard starts as soon as the subscription here is cancelled, so what is buffered
+      // for it goes back to the queue rather than being processed alongside the new owner. Returning it after the
+      // cancel keeps the broker from handing it straight back, a consumer shared with other shards returns theirs too.
+      Set<RabbitMQQueueingConsumer> revoked = new HashSet<RabbitMQQueueingConsumer>();
+      for (Iterator<Map.Entry<Integer, String>> i = shardTags.entrySet().iterator(); i.hasNext();)
+      {
+        Map.Entry<Integer, String> subscription = i.next();
+        if (!shards.contains(subscription.getKey()))
+        {
+          RabbitMQQueueingConsumer consumer = current.get(subscription.getKey() % current.size());
+          consumer.getChannel().basicCancel(subscription.getValue());
+          revoked.add(consumer);
+          i.remove();
+        }
+      }
+      for (RabbitMQQueueingConsumer consumer : revoked)
+        consumer.release();
+      for (Integer shard : shards)
+      {
+        if (!shardTags.containsKey(shard))
+        {
+          RabbitMQQueueingConsumer consumer = current.get(shard % current.size());
+          shardTags.put(shard, consumer.getChannel().basicConsume(RabbitMQShardCoordinator.shardQueueName(queue.getName(), shard), false, consumer));
+        }
+      }
     }
-    catch (Exception e)
+    catch (IOException | AlreadyClosedException e)
     {
-      // ignore
+      LOGGER.error(LOGGER.translate("SHARD_ASSIGN_ERROR", e.getMessage()), e);
     }
-    return (delivery != null) ? delivery.getBody() : null;
+  }
+
+  /**
+   * The prefetch window a consumer is given. The window is what keeps a buffer bounded, so a buffered consumer never
+   * gets more than the buffer holds, nor an unlimited window for a prefetch count of 0.
+   */
+  public static int getPrefetchWindow(int prefetchCount, int bufferCapacity, boolean buffered)
+  {
+    if (!buffered)
+      return prefetchCount;
+    int capacity = Math.max(1, bufferCapacity);
+    return (prefetchCount > 0) ? Math.min(prefetchCount, capacity) : capacity;
+  }
+
+  public RabbitMQQueueingConsumer getConsumer(int index)
+  {
+    List<RabbitMQQueueingConsumer> current = consumers;
+    return (index < current.size()) ? current.get(index) : null;
+  }
+
+  @Override
+  protected boolean isOwnChannel(Channel other)
+  {
+    if (super.isOwnChannel(other) || other == coordinatorChannel)
+      return true;
+    for (RabbitMQQueueingConsumer consumer : consumers)
+      if (consumer.getChannel() == other)
+        return true;
+    return false;
   }
 
   @Override
   protected synchronized void disconnect(String reason)
   {
+    List<RabbitMQQueueingConsumer> current = consumers;
+    if (coordinator != null)
+    {
+      coordinator.stop();
+      coordinator = null;
+    }
+    shardTags.clear();
     if (connected)
     {
-      if (channel != null)
+      boolean cancelled = false;
+      for (RabbitMQQueueingConsumer consumer : current)
       {
-        if (channel.isOpen())
+        Channel consumerChannel = consumer.getChannel();
+        for (String consumerTag : consumer.getConsumerTags())
         {
-          if (consumer != null)
+          if (consumerChannel.isOpen())
           {
             try
             {
-              channel.basicCancel(consumer.getConsumerTag());
+              consumerChannel.basicCancel(consumerTag);
+              cancelled = true;
             }
             catch (IOException e)
             {
               LOGGER.error("CONSUMER_CANCEL_ERROR", e.getMessage(), e);
             }
-            try
-            {
-              Thread.sleep(1000);
-            }
-            catch (InterruptedException e)
-            {
-              // ignore
-            }
-            consumer = null;
           }
         }
       }
+      if (cancelled)
+      {
+        try
+        {
+          Thread.sleep(1000);
+        }
+        catch (InterruptedException e)
+        {
+          // ignore
+        }
+      }
+      for (RabbitMQQueueingConsumer consumer : current)
+        consumer.release();
+    }
+    if (ackFlushTask != null)
+    {
+      ackFlushTask.cancel(false);
+      ackFlushTask = null;
+    }
+    for (RabbitMQQueueingConsumer consumer : current)
+    {
+      Channel consumerChannel = consumer.getChannel();
+      if (consumerChannel != channel && consumerChannel.isOpen())
+      {
+        try
+        {
+          consumerChannel.close();
+        }
+        catch (IOException | TimeoutException e)
+        {
+          String msg = LOGGER.translate("CHANNEL_CLOSE_ERROR", e.getMessage());
+          LOGGER.error(msg, e);
+        }
+      }
+    }
+    if (coordinatorChannel != null)
+    {
+      if (coordinatorChannel.isOpen())
+      {
+        try
+        {
+          coordinatorChannel.close();
+        }
+        catch (IOException | TimeoutException e)
+        {
+          String msg = LOGGER.translate("CHANNEL_CLOSE_ERROR", e.getMessage());
+          LOGGER.error(msg, e);
+        }
+      }
+      coordinatorChannel = null;
     }
+    consumers = Collections.emptyList();
     super.disconnect(reason);
   }
 }
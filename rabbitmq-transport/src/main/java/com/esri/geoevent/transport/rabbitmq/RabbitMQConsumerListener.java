@@ -38,18 +38,18 @@ public class RabbitMQConsumerListener extends RabbitMQObservable implements Cons
   @Override
   public void onRecoveryStarted(Consumer consumer, Channel channel)
   {
-    notifyObservers(RabbitMQConnectionStatus.RECOVERY_STARTED, LOGGER.translate("CONSUMER_RECOVERY_STARTED", channel.getChannelNumber()), consumer, channel);
+    notifyListeners(RabbitMQConnectionStatus.RECOVERY_STARTED, LOGGER.translate("CONSUMER_RECOVERY_STARTED", channel.getChannelNumber()), consumer, channel);
   }
 
   @Override
   public void onRecoveryCompleted(Consumer consumer, Channel channel)
   {
-    notifyObservers(RabbitMQConnectionStatus.RECOVERY_COMPLETED, LOGGER.translate("CONSUMER_RECOVERY_COMPLETED", channel.getChannelNumber()), consumer, channel);
+    notifyListeners(RabbitMQConnectionStatus.RECOVERY_COMPLETED, LOGGER.translate("CONSUMER_RECOVERY_COMPLETED", channel.getChannelNumber()), consumer, channel);
   }
 
   @Override
   public void onRecoveryFailure(Consumer consumer, Channel channel, Throwable failure)
   {
-    notifyObservers(RabbitMQConnectionStatus.RECOVERY_FAILED, LOGGER.translate("CONSUMER_RECOVERY_FAILED", channel.getChannelNumber(), failure.getMessage()), consumer, channel);
+    notifyListeners(RabbitMQConnectionStatus.RECOVERY_FAILED, LOGGER.translate("CONSUMER_RECOVERY_FAILED", channel.getChannelNumber(), failure.getMessage()), consumer, channel);
   }
 }
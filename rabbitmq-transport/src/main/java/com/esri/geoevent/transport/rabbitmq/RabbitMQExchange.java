@@ -24,6 +24,9 @@
 
 package com.esri.geoevent.transport.rabbitmq;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import com.esri.ges.core.validation.Validatable;
 import com.esri.ges.core.validation.ValidationException;
 import com.esri.ges.framework.i18n.BundleLogger;
@@ -33,7 +36,23 @@ import com.esri.ges.util.Validator;
 
 enum RabbitMQExchangeType
 {
-  direct, fanout
+  direct("direct"), fanout("fanout"), topic("topic"), headers("headers"), consistentHash("x-consistent-hash");
+
+  private final String typeName;
+
+  private RabbitMQExchangeType(String typeName)
+  {
+    this.typeName = typeName;
+  }
+
+  /**
+   * The type the exchange is declared with. The consistent hash exchange needs the broker's
+   * rabbitmq_consistent_hash_exchange plugin.
+   */
+  public String getTypeName()
+  {
+    return typeName;
+  }
 }
 
 public class RabbitMQExchange implements Validatable
@@ -44,14 +63,36 @@ public class RabbitMQExchange implements Validatable
   private RabbitMQDurability        durability;
   private boolean                   autoDelete;
   private String                    routingKey;
+  private Map<String, Object>       bindingArguments;
+  private String                    alternateExchange;
 
   public RabbitMQExchange(String name, String type, String durability, String autoDelete, String routingKey)
+  {
+    this(name, type, durability, autoDelete, routingKey, null, null);
+  }
+
+  /**
+   * @param bindingHeaders the headers a queue bound to a headers exchange matches on, as a comma separated list of
+   *          name=value pairs
+   */
+  public RabbitMQExchange(String name, String type, String durability, String autoDelete, String routingKey, String bindingHeaders, String bindingMatch)
+  {
+    this(name, type, durability, autoDelete, routingKey, bindingHeaders, bindingMatch, null);
+  }
+
+  /**
+   * @param alternateExchange the exchange that receives the messages this exchange cannot route to any queue
+   */
+  public RabbitMQExchange(String name, String type, String durability, String autoDelete, String routingKey, String bindingHeaders, String bindingMatch, String alternateExchange)
   {
     this.name = name;
     this.type = Validator.valueOfIgnoreCase(RabbitMQExchangeType.class, type, RabbitMQExchangeType.direct);
     this.durability = Validator.valueOfIgnoreCase(RabbitMQDurability.class, durability, RabbitMQDurability.Transient);
     this.autoDelete = Converter.convertToBoolean(autoDelete, true);
     this.routingKey = routingKey;
+    if (RabbitMQExchangeType.headers.equals(this.type))
+      this.bindingArguments = parseBindingHeaders(bindingHeaders, Validator.valueOfIgnoreCase(RabbitMQHeadersMatch.class, bindingMatch, RabbitMQHeadersMatch.All));
+    this.alternateExchange = (alternateExchange != null && !alternateExchange.trim().isEmpty()) ? alternateExchange.trim() : null;
   }
 
   public String getName()
@@ -79,10 +120,48 @@ public class RabbitMQExchange implements Validatable
     return routingKey;
   }
 
+  /**
+   * The arguments for binding a queue to this exchange, null unless it is a headers exchange.
+   */
+  public Map<String, Object> getBindingArguments()
+  {
+    return bindingArguments;
+  }
+
+  /**
+   * The arguments the exchange is declared with, null if it needs none.
+   */
+  public Map<String, Object> getArguments()
+  {
+    if (alternateExchange == null)
+      return null;
+    Map<String, Object> arguments = new HashMap<String, Object>();
+    arguments.put("alternate-exchange", alternateExchange);
+    return arguments;
+  }
+
   @Override
   public void validate() throws ValidationException
   {
     if (name == null || name.isEmpty())
       throw new ValidationException(LOGGER.translate("EXCHANGE_VALIDATE_ERROR"));
+    if (name.equals(alternateExchange))
+      throw new ValidationException(LOGGER.translate("ALTERNATE_EXCHANGE_VALIDATE_ERROR"));
+  }
+
+  private static Map<String, Object> parseBindingHeaders(String bindingHeaders, RabbitMQHeadersMatch match)
+  {
+    Map<String, Object> arguments = new HashMap<String, Object>();
+    arguments.put("x-match", match.toString().toLowerCase());
+    if (bindingHeaders != null)
+    {
+      for (String pair : bindingHeaders.split(","))
+      {
+        int equals = pair.indexOf('=');
+        if (equals > 0)
+          arguments.put(pair.substring(0, equals).trim(), pair.substring(equals + 1).trim());
+      }
+    }
+    return arguments;
   }
 }
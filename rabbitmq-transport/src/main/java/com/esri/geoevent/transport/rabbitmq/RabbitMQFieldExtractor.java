@@ -0,0 +1,175 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+
+package com.esri.geoevent.transport.rabbitmq;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pulls a single field value out of a record without parsing it. A field given as a number is the field of that index
+ * in a delimited text record, any other name is a scalar member of a JSON record; the first member of that name at any
+ * depth wins. Values are returned as written, JSON escape sequences are not resolved. The record's position and limit
+ * are left untouched.
+ */
+final class RabbitMQFieldExtractor
+{
+  private final String name;
+  private final int    index;
+  private final byte[] key;
+  private final byte   delimiter;
+
+  RabbitMQFieldExtractor(String field, byte delimiter)
+  {
+    this.name = (field != null) ? field.trim() : "";
+    this.index = parseIndex(name);
+    this.key = (index < 0) ? ("\"" + name + "\"").getBytes(StandardCharsets.UTF_8) : null;
+    this.delimiter = delimiter;
+  }
+
+  String getName()
+  {
+    return name;
+  }
+
+  /**
+   * @return the value, or null if the record has no such field
+   */
+  String extract(ByteBuffer record)
+  {
+    return (index >= 0) ? delimited(record, index, delimiter) : json(record, key);
+  }
+
+  private static int parseIndex(String name)
+  {
+    if (name.isEmpty() || name.length() > 9)
+      return -1;
+    for (int i = 0; i < name.length(); i++)
+      if (!Character.isDigit(name.charAt(i)))
+        return -1;
+    return Integer.parseInt(name);
+  }
+
+  private static String delimited(ByteBuffer record, int index, byte delimiter)
+  {
+    int limit = record.limit();
+    int start = record.position();
+    for (int field = 0; field < index; field++)
+    {
+      int next = indexOf(record, delimiter, start, limit);
+      if (next < 0)
+        return null;
+      start = next + 1;
+    }
+    int end = indexOf(record, delimiter, start, limit);
+    if (end < 0)
+      end = limit;
+    // the last field still carries the record terminator
+    while (end > start && (record.get(end - 1) == '\n' || record.get(end - 1) == '\r'))
+      end--;
+    if (end - start >= 2 && record.get(start) == '"' && record.get(end - 1) == '"')
+    {
+      start++;
+      end--;
+    }
+    return decode(record, start, end);
+  }
+
+  /**
+   * @param key the member name in quotes, as UTF-8 bytes
+   */
+  private static String json(ByteBuffer record, byte[] key)
+  {
+    int limit = record.limit();
+    for (int i = indexOf(record, key, record.position(), limit); i >= 0; i = indexOf(record, key, i + 1, limit))
+    {
+      int p = skipWhitespace(record, i + key.length, limit);
+      // the name also turns up as a string value, only a following colon makes it a member name
+      if (p >= limit || record.get(p) != ':')
+        continue;
+      p = skipWhitespace(record, p + 1, limit);
+      if (p >= limit)
+        return null;
+      if (record.get(p) == '"')
+      {
+        int end = p + 1;
+        while (end < limit && record.get(end) != '"')
+          end += (record.get(end) == '\\') ? 2 : 1;
+        return decode(record, p + 1, Math.min(end, limit));
+      }
+      int end = p;
+      while (end < limit && !isJsonDelimiter(record.get(end)))
+        end++;
+      return decode(record, p, end);
+    }
+    return null;
+  }
+
+  private static boolean isJsonDelimiter(byte b)
+  {
+    return b == ',' || b == '}' || b == ']' || b == ' ' || b == '\t' || b == '\r' || b == '\n';
+  }
+
+  private static int skipWhitespace(ByteBuffer record, int from, int limit)
+  {
+    while (from < limit && (record.get(from) == ' ' || record.get(from) == '\t' || record.get(from) == '\r' || record.get(from) == '\n'))
+      from++;
+    return from;
+  }
+
+  private static int indexOf(ByteBuffer record, byte b, int from, int limit)
+  {
+    for (int i = from; i < limit; i++)
+      if (record.get(i) == b)
+        return i;
+    return -1;
+  }
+
+  private static int indexOf(ByteBuffer record, byte[] pattern, int from, int limit)
+  {
+    for (int i = from; i <= limit - pattern.length; i++)
+      if (matches(record, pattern, i))
+        return i;
+    return -1;
+  }
+
+  private static boolean matches(ByteBuffer record, byte[] pattern, int offset)
+  {
+    for (int j = 0; j < pattern.length; j++)
+      if (record.get(offset + j) != pattern[j])
+        return false;
+    return true;
+  }
+
+  private static String decode(ByteBuffer record, int start, int end)
+  {
+    if (record.hasArray())
+      return new String(record.array(), record.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+    byte[] bytes = new byte[end - start];
+    for (int i = 0; i < bytes.length; i++)
+      bytes[i] = record.get(start + i);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,156 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+
+package com.esri.geoevent.transport.rabbitmq;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Routes records by location for topic exchanges. The key holds the geohash of the record's point at each configured
+ * precision, e.g. <code>gh.9q8.9q8y</code> for precisions 3 and 4, so a consumer subscribes to an area by binding
+ * <code>gh.#.9q8.#</code> with a prefix of one of those lengths. Records without a valid point go to <code>gh</code>.
+ */
+public class RabbitMQGeohashRouter implements RabbitMQRouter
+{
+  public static final String           PREFIX        = "gh";
+  private static final char[]          BASE32        = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+  private static final int             MAX_PRECISION = 12;
+  private static final RabbitMQRoute   NOWHERE       = new RabbitMQRoute(PREFIX, null);
+  private final RabbitMQFieldExtractor xField;
+  private final RabbitMQFieldExtractor yField;
+  private final int[]                  precisions;
+
+  public RabbitMQGeohashRouter(String xField, String yField, String precisions, byte delimiter)
+  {
+    this.xField = new RabbitMQFieldExtractor(xField, delimiter);
+    this.yField = new RabbitMQFieldExtractor(yField, delimiter);
+    this.precisions = parsePrecisions(precisions);
+  }
+
+  /**
+   * The binding key that subscribes a queue to every record within the given geohash prefix.
+   */
+  public static String bindingKey(String prefix)
+  {
+    return PREFIX + ".#." + prefix.trim().toLowerCase() + ".#";
+  }
+
+  @Override
+  public RabbitMQRoute route(ByteBuffer record)
+  {
+    if (record == null || precisions.length == 0)
+      return NOWHERE;
+    double x;
+    double y;
+    try
+    {
+      String xValue = xField.extract(record);
+      String yValue = yField.extract(record);
+      if (xValue == null || yValue == null)
+        return NOWHERE;
+      x = Double.parseDouble(xValue.trim());
+      y = Double.parseDouble(yValue.trim());
+    }
+    catch (NumberFormatException e)
+    {
+      return NOWHERE;
+    }
+    if (!(x >= -180 && x <= 180 && y >= -90 && y <= 90))
+      return NOWHERE;
+    char[] geohash = encode(x, y, precisions[precisions.length - 1]);
+    StringBuilder routingKey = new StringBuilder(PREFIX);
+    for (int precision : precisions)
+      routingKey.append('.').append(geohash, 0, precision);
+    return new RabbitMQRoute(routingKey.toString(), null);
+  }
+
+  static char[] encode(double x, double y, int precision)
+  {
+    double minX = -180, maxX = 180;
+    double minY = -90, maxY = 90;
+    char[] geohash = new char[precision];
+    boolean even = true;
+    for (int i = 0; i < precision; i++)
+    {
+      int bits = 0;
+      for (int bit = 0; bit < 5; bit++)
+      {
+        // bits alternate between longitude and latitude, starting with longitude
+        bits <<= 1;
+        if (even)
+        {
+          double mid = (minX + maxX) / 2;
+          if (x >= mid)
+          {
+            bits |= 1;
+            minX = mid;
+          }
+          else
+            maxX = mid;
+        }
+        else
+        {
+          double mid = (minY + maxY) / 2;
+          if (y >= mid)
+          {
+            bits |= 1;
+            minY = mid;
+          }
+          else
+            maxY = mid;
+        }
+        even = !even;
+      }
+      geohash[i] = BASE32[bits];
+    }
+    return geohash;
+  }
+
+  private static int[] parsePrecisions(String value)
+  {
+    int[] precisions = new int[MAX_PRECISION];
+    int count = 0;
+    if (value != null)
+    {
+      for (String entry : value.split(","))
+      {
+        try
+        {
+          int precision = Integer.parseInt(entry.trim());
+          if (precision >= 1 && precision <= MAX_PRECISION && count < precisions.length)
+            precisions[count++] = precision;
+        }
+        catch (NumberFormatException e)
+        {
+          ;
+        }
+      }
+    }
+    precisions = Arrays.copyOf(precisions, count);
+    Arrays.sort(precisions);
+    return precisions;
+  }
+}
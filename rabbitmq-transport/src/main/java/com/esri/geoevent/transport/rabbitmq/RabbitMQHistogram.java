@@ -0,0 +1,116 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+
+package com.esri.geoevent.transport.rabbitmq;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power-of-two buckets: bucket 0 counts latencies below one microsecond, bucket n
+ * those from 2^(n-1) up to 2^n microseconds. Percentiles are interpolated linearly within their bucket.
+ */
+public class RabbitMQHistogram
+{
+  private static final int      BUCKETS = 40;
+  private final LongAdder[]     buckets = new LongAdder[BUCKETS];
+  private final LongAdder       count   = new LongAdder();
+  private final LongAdder       sum     = new LongAdder();
+  private final LongAccumulator max     = new LongAccumulator(Math::max, 0);
+
+  public RabbitMQHistogram()
+  {
+    for (int i = 0; i < BUCKETS; i++)
+      buckets[i] = new LongAdder();
+  }
+
+  public void record(long nanos)
+  {
+    long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos));
+    int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    buckets[bucket].increment();
+    count.increment();
+    sum.add(micros);
+    max.accumulate(micros);
+  }
+
+  public long getCount()
+  {
+    return count.sum();
+  }
+
+  public double getMean()
+  {
+    long n = count.sum();
+    return (n > 0) ? (double) sum.sum() / n : 0;
+  }
+
+  public long getMax()
+  {
+    return max.get();
+  }
+
+  public long getPercentile(double percentile)
+  {
+    long[] counts = getBuckets();
+    long total = 0;
+    for (long n : counts)
+      total += n;
+    if (total == 0)
+      return 0;
+    long rank = (long) Math.ceil(total * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++)
+    {
+      if (seen + counts[i] >= rank)
+      {
+        // interpolate within the bucket
+        long lower = (i == 0) ? 0 : 1L << (i - 1);
+        long upper = 1L << i;
+        return Math.min(lower + (upper - lower) * (rank - seen) / counts[i], getMax());
+      }
+      seen += counts[i];
+    }
+    return getMax();
+  }
+
+  public long[] getBuckets()
+  {
+    long[] counts = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++)
+      counts[i] = buckets[i].sum();
+    return counts;
+  }
+
+  public void reset()
+  {
+    for (LongAdder bucket : buckets)
+      bucket.reset();
+    count.reset();
+    sum.reset();
+    max.reset();
+  }
+}
@@ -33,19 +33,59 @@ import com.esri.ges.framework.i18n.BundleLoggerFactory;
 import com.esri.ges.transport.InboundTransportBase;
 import com.esri.ges.transport.TransportDefinition;
 import com.esri.ges.util.Converter;
+import com.esri.ges.util.Validator;
+import com.rabbitmq.client.BasicProperties;
 
 import java.nio.ByteBuffer;
-import java.util.Observable;
-import java.util.Observer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
 
-public class RabbitMQInboundTransport extends InboundTransportBase implements Runnable, Observer
+public class RabbitMQInboundTransport extends InboundTransportBase implements RabbitMQTransportListener, RabbitMQDeliveryListener
 {
-  private static final BundleLogger LOGGER = BundleLoggerFactory.getLogger(RabbitMQInboundTransport.class);
-  private RabbitMQConnectionInfo    connectionInfo;
-  private RabbitMQExchange          exchange;
-  private RabbitMQQueue             queue;
-  private int                       prefetchCount;
-  private RabbitMQConsumer          consumer;
+  private static final BundleLogger          LOGGER                  = BundleLoggerFactory.getLogger(RabbitMQInboundTransport.class);
+  private static final String[]              CHANNEL_IDS             = new String[64];
+  private static final long                  DISPATCHER_STOP_TIMEOUT = 5000;
+  private RabbitMQConnectionInfo             connectionInfo;
+  private RabbitMQExchange                   exchange;
+  private RabbitMQQueue                      queue;
+  private List<String>                       geohashPrefixes;
+  private int                                shardCount;
+  private long                               shardHeartbeatInterval;
+  private int                                prefetchCount;
+  private int                                concurrency;
+  private int                                bufferCapacity;
+  private RabbitMQAcknowledgementMode        ackMode;
+  private int                                ackBatchSize;
+  private long                               ackInterval;
+  private RabbitMQDispatchMode               dispatchMode;
+  private RabbitMQSheddingPolicy             sheddingPolicy;
+  private RabbitMQSheddingTrigger            sheddingTrigger;
+  private long                               sheddingHighWatermark;
+  private long                               sheddingLowWatermark;
+  private int                                sheddingSampleRate;
+  private RabbitMQConflationMode             conflationMode;
+  private String                             conflationKey;
+  private byte                               conflationFieldSeparator;
+  private int                                batchMaxMessages;
+  private long                               batchMaxWait;
+  private byte[]                             batchSeparator;
+  private int                                maxDecompressedSize;
+  private RabbitMQConsumer                   consumer;
+  private List<RabbitMQDispatcher>           dispatchers             = new ArrayList<RabbitMQDispatcher>();
+  private volatile Map.Entry<String, byte[]> recordSeparator;
+  private final RabbitMQMetrics              metrics                 = new RabbitMQMetrics("Inbound");
+
+  static
+  {
+    CHANNEL_IDS[0] = "";
+    for (int i = 1; i < CHANNEL_IDS.length; i++)
+      CHANNEL_IDS[i] = Integer.toString(i);
+  }
 
   public RabbitMQInboundTransport(TransportDefinition definition) throws ComponentException
   {
@@ -57,32 +97,6 @@ public class RabbitMQInboundTransport extends InboundTransportBase implements Ru
     return true;
   }
 
-  @Override
-  public void run()
-  {
-    setErrorMessage("");
-    setRunningState(RunningState.STARTED);
-    while (isRunning())
-    {
-      try
-      {
-        byte[] bytes = consumer.receive();
-        if (bytes != null && bytes.length > 0)
-        {
-          ByteBuffer bb = ByteBuffer.allocate(bytes.length);
-          bb.put(bytes);
-          bb.flip();
-          byteListener.receive(bb, "");
-          bb.clear();
-        }
-      }
-      catch (RabbitMQTransportException e)
-      {
-        LOGGER.error("", e);
-      }
-    }
-  }
-
   @SuppressWarnings("incomplete-switch")
   @Override
   public synchronized void start() throws RunningException
@@ -132,15 +146,53 @@ public class RabbitMQInboundTransport extends InboundTransportBase implements Ru
     String exchangeDurability = getProperty("exchangeDurability").getValueAsString();
     String exchangeAutoDelete = getProperty("exchangeAutoDelete").getValueAsString();
     String routingKey = getProperty("routingKey").getValueAsString();
-    exchange = new RabbitMQExchange(exchangeName, exchangeType, exchangeDurability, exchangeAutoDelete, routingKey);
+    String bindingHeaders = getProperty("bindingHeaders").getValueAsString();
+    String bindingMatch = getProperty("bindingMatch").getValueAsString();
+    String alternateExchange = getProperty("alternateExchange").getValueAsString();
+    exchange = new RabbitMQExchange(exchangeName, exchangeType, exchangeDurability, exchangeAutoDelete, routingKey, bindingHeaders, bindingMatch, alternateExchange);
+    geohashPrefixes = new ArrayList<String>();
+    String prefixes = getProperty("geohashPrefixes").getValueAsString();
+    if (prefixes != null)
+      for (String prefix : prefixes.split(","))
+        if (!prefix.trim().isEmpty())
+          geohashPrefixes.add(prefix.trim().toLowerCase());
 
     String queueName = getProperty("queueName").getValueAsString();
     String queueDurability = getProperty("queueDurability").getValueAsString();
     String queueExclusive = getProperty("queueExclusive").getValueAsString();
     String queueAutoDelete = getProperty("queueAutoDelete").getValueAsString();
-    queue = new RabbitMQQueue(queueName, queueDurability, queueExclusive, queueAutoDelete);
+    String queueType = getProperty("queueType").getValueAsString();
+    String queueMaxLength = getProperty("queueMaxLength").getValueAsString();
+    String queueMaxLengthBytes = getProperty("queueMaxLengthBytes").getValueAsString();
+    String queueOverflow = getProperty("queueOverflow").getValueAsString();
+    String queueMessageTtl = getProperty("queueMessageTtl").getValueAsString();
+    String queueLazy = getProperty("queueLazy").getValueAsString();
+    queue = new RabbitMQQueue(queueName, queueDurability, queueExclusive, queueAutoDelete, queueType, queueMaxLength, queueMaxLengthBytes, queueOverflow, queueMessageTtl, queueLazy);
 
-    prefetchCount = Converter.convertToInteger(getProperty("prefetchCount").getValueAsString(), 1);
+    shardCount = Math.max(0, Converter.convertToInteger(getProperty("shardCount").getValueAsString(), 0));
+    shardHeartbeatInterval = Converter.convertToInteger(getProperty("shardHeartbeatInterval").getValueAsString(), 5000);
+
+    prefetchCount = Converter.convertToInteger(getProperty("prefetchCount").getValueAsString(), 250);
+    concurrency = Converter.convertToInteger(getProperty("consumerConcurrency").getValueAsString(), 1);
+    bufferCapacity = Converter.convertToInteger(getProperty("bufferCapacity").getValueAsString(), 1000);
+    dispatchMode = Validator.valueOfIgnoreCase(RabbitMQDispatchMode.class, getProperty("dispatchMode").getValueAsString(), RabbitMQDispatchMode.Queued);
+    sheddingPolicy = Validator.valueOfIgnoreCase(RabbitMQSheddingPolicy.class, getProperty("sheddingPolicy").getValueAsString(), RabbitMQSheddingPolicy.None);
+    sheddingTrigger = Validator.valueOfIgnoreCase(RabbitMQSheddingTrigger.class, getProperty("sheddingTrigger").getValueAsString(), RabbitMQSheddingTrigger.Depth);
+    sheddingHighWatermark = Converter.convertToInteger(getProperty("sheddingHighWatermark").getValueAsString(), 200);
+    sheddingLowWatermark = Converter.convertToInteger(getProperty("sheddingLowWatermark").getValueAsString(), 100);
+    sheddingSampleRate = Converter.convertToInteger(getProperty("sheddingSampleRate").getValueAsString(), 10);
+    conflationMode = Validator.valueOfIgnoreCase(RabbitMQConflationMode.class, getProperty("conflationMode").getValueAsString(), RabbitMQConflationMode.None);
+    conflationKey = getProperty("conflationKey").getValueAsString();
+    byte[] fieldSeparator = RabbitMQCoalescer.parseSeparator(getProperty("conflationFieldSeparator").getValueAsString());
+    conflationFieldSeparator = (fieldSeparator.length > 0) ? fieldSeparator[0] : (byte) ',';
+    ackMode = Validator.valueOfIgnoreCase(RabbitMQAcknowledgementMode.class, getProperty("acknowledgementMode").getValueAsString(), RabbitMQAcknowledgementMode.Auto);
+    ackBatchSize = Converter.convertToInteger(getProperty("ackBatchSize").getValueAsString(), 100);
+    ackInterval = Converter.convertToInteger(getProperty("ackInterval").getValueAsString(), 1000);
+    batchMaxMessages = Math.max(1, Converter.convertToInteger(getProperty("batchMaxMessages").getValueAsString(), 1));
+    batchMaxWait = Math.max(0, Converter.convertToInteger(getProperty("batchMaxWait").getValueAsString(), 1000));
+    batchSeparator = RabbitMQCoalescer.parseSeparator(getProperty("batchSeparator").getValueAsString());
+    maxDecompressedSize = (int) Math.min(Integer.MAX_VALUE, Converter.convertToInteger(getProperty("maxDecompressedSize").getValueAsString(), 64) * 1024L * 1024L);
+    metrics.register(exchangeName + "/" + queueName);
     super.afterPropertiesSet();
   }
 
@@ -150,7 +202,42 @@ public class RabbitMQInboundTransport extends InboundTransportBase implements Ru
     super.validate();
     connectionInfo.validate();
     exchange.validate();
+    if (!geohashPrefixes.isEmpty() && !RabbitMQExchangeType.topic.equals(exchange.getType()))
+      throw new ValidationException(LOGGER.translate("GEOHASH_EXCHANGE_VALIDATE_ERROR"));
+    if (shardCount > 0 && !RabbitMQExchangeType.consistentHash.equals(exchange.getType()))
+      throw new ValidationException(LOGGER.translate("SHARDING_EXCHANGE_VALIDATE_ERROR"));
+    // a sharded consumer shares one prefetch window among its queues, which only classic queues support
+    if (shardCount > 0 && !RabbitMQQueueType.Classic.equals(queue.getType()))
+      throw new ValidationException(LOGGER.translate("SHARDING_QUEUE_TYPE_VALIDATE_ERROR", queue.getType()));
     queue.validate();
+    if (!RabbitMQSheddingPolicy.None.equals(sheddingPolicy))
+      validateShedding();
+    if (!RabbitMQConflationMode.None.equals(conflationMode))
+    {
+      if (!RabbitMQDispatchMode.Queued.equals(dispatchMode))
+        throw new ValidationException(LOGGER.translate("CONFLATION_DISPATCH_MODE_VALIDATE_ERROR"));
+      if (conflationKey == null || conflationKey.trim().isEmpty())
+        throw new ValidationException(LOGGER.translate("CONFLATION_KEY_VALIDATE_ERROR"));
+    }
+    if (maxDecompressedSize <= 0)
+      throw new ValidationException(LOGGER.translate("DECOMPRESSED_SIZE_VALIDATE_ERROR"));
+    // stream queues refuse consumers without a prefetch limit
+    if (RabbitMQQueueType.Stream.equals(queue.getType()) && prefetchCount <= 0)
+      throw new ValidationException(LOGGER.translate("QUEUE_STREAM_PREFETCH_VALIDATE_ERROR"));
+  }
+
+  private void validateShedding() throws ValidationException
+  {
+    if (!RabbitMQDispatchMode.Queued.equals(dispatchMode))
+      throw new ValidationException(LOGGER.translate("SHEDDING_DISPATCH_MODE_VALIDATE_ERROR"));
+    // the buffer never holds more than the prefetch window
+    int window = RabbitMQConsumer.getPrefetchWindow(prefetchCount, bufferCapacity, true);
+    if (sheddingHighWatermark <= 0 || sheddingLowWatermark < 0 || sheddingLowWatermark > sheddingHighWatermark)
+      throw new ValidationException(LOGGER.translate("SHEDDING_WATERMARK_VALIDATE_ERROR"));
+    if (RabbitMQSheddingTrigger.Depth.equals(sheddingTrigger) && sheddingHighWatermark > window)
+      throw new ValidationException(LOGGER.translate("SHEDDING_DEPTH_VALIDATE_ERROR", window));
+    if (sheddingSampleRate < 0 || sheddingSampleRate > 100)
+      throw new ValidationException(LOGGER.translate("SHEDDING_SAMPLE_RATE_VALIDATE_ERROR"));
   }
 
   private synchronized void connect()
@@ -162,11 +249,33 @@ public class RabbitMQInboundTransport extends InboundTransportBase implements Ru
       if (consumer == null)
       {
         consumer = new RabbitMQConsumer(connectionInfo, exchange, queue);
-        consumer.addObserver(this);
+        // handled off the notifying thread so a recovery storm cannot stall Lyra or the publishers
+        consumer.addListener(this, true);
       }
       consumer.setPrefetchCount(prefetchCount);
+      consumer.setConcurrency(concurrency);
+      consumer.setBufferCapacity(bufferCapacity);
+      consumer.setLoadShedding(sheddingPolicy, sheddingTrigger, sheddingHighWatermark, sheddingLowWatermark, sheddingSampleRate);
+      consumer.setConflation(conflationMode, conflationKey, conflationFieldSeparator);
+      consumer.setAcknowledgementMode(ackMode);
+      consumer.setAckBatchSize(ackBatchSize);
+      consumer.setAckInterval(ackInterval);
+      consumer.setDeliveryListener(RabbitMQDispatchMode.Direct.equals(dispatchMode) ? this : null);
+      consumer.setGeohashPrefixes(geohashPrefixes);
+      consumer.setSharding(shardCount, shardHeartbeatInterval);
+      metrics.setConsumer(consumer);
       consumer.connect();
-      new Thread(this).start();
+      setErrorMessage("");
+      setRunningState(RunningState.STARTED);
+      if (RabbitMQDispatchMode.Queued.equals(dispatchMode))
+      {
+        for (int i = 0; i < consumer.getConcurrency(); i++)
+        {
+          RabbitMQDispatcher dispatcher = new RabbitMQDispatcher(consumer, i);
+          dispatchers.add(dispatcher);
+          dispatcher.start("RabbitMQ-Inbound-" + queue.getName() + "-" + i);
+        }
+      }
     }
     catch (RabbitMQTransportException e)
     {
@@ -178,6 +287,14 @@ public class RabbitMQInboundTransport extends InboundTransportBase implements Ru
   private synchronized void disconnect(String reason)
   {
     setRunningState(RunningState.STOPPING);
+    for (RabbitMQDispatcher dispatcher : dispatchers)
+      dispatcher.stop();
+    // a dispatcher that is still finishing its batch would otherwise run alongside the one started on reconnect, and
+    // complete deliveries after its consumer has returned them to the queue
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DISPATCHER_STOP_TIMEOUT);
+    for (RabbitMQDispatcher dispatcher : dispatchers)
+      dispatcher.join(deadline);
+    dispatchers.clear();
     if (consumer != null)
       consumer.disconnect(reason);
     setErrorMessage(reason);
@@ -188,7 +305,7 @@ public class RabbitMQInboundTransport extends InboundTransportBase implements Ru
   {
     if (consumer != null)
     {
-      consumer.deleteObserver(this);
+      consumer.removeListener(this);
       consumer.shutdown("");
       consumer = null;
     }
@@ -197,47 +314,303 @@ public class RabbitMQInboundTransport extends InboundTransportBase implements Ru
   public void shutdown()
   {
     shutdownConsumer();
+    metrics.unregister();
     super.shutdown();
   }
 
   @Override
-  public void update(Observable observable, Object obj)
+  public void onTransportEvent(RabbitMQTransportEvent event)
+  {
+    switch (event.getStatus())
+    {
+      case CREATED:
+      case RECOVERY:
+        metrics.connected();
+        try
+        {
+          start();
+        }
+        catch (RunningException e)
+        {
+          ;
+        }
+        break;
+      case DISCONNECTED:
+        metrics.disconnected();
+        disconnect("");
+        break;
+      case SHUTDOWN:
+        shutdown();
+        break;
+      case RECOVERY_FAILED:
+      case CREATION_FAILED:
+        LOGGER.error(event.getDetails());
+        metrics.disconnected();
+        disconnect(event.getDetails());
+        setRunningState(RunningState.ERROR);
+        break;
+      case RECOVERY_STARTED:
+        metrics.disconnected();
+        break;
+      case RECOVERY_COMPLETED:
+        metrics.connected();
+        break;
+      default:
+        break;
+    }
+  }
+
+  @Override
+  public void onDelivery(RabbitMQQueueingConsumer source, RabbitMQQueueingConsumer.Delivery delivery)
+  {
+    dispatch(source.getIndex(), delivery);
+    source.complete(delivery);
+  }
+
+  private void dispatch(int index, RabbitMQQueueingConsumer.Delivery delivery)
   {
-    if (obj instanceof RabbitMQTransportEvent)
+    byte[] bytes = delivery.getBody();
+    if (bytes != null && bytes.length > 0)
     {
-      RabbitMQTransportEvent event = (RabbitMQTransportEvent) obj;
-      switch (event.getStatus())
+      metrics.recordMessage(bytes.length);
+      try
       {
-        case CREATED:
-        case RECOVERY:
-          try
+        // the client allocates a new body for every delivery, so the adapter can read it in place
+        ByteBuffer body = decode(delivery);
+        byte[] separator = recordSeparator(delivery.getProperties());
+        if (separator == null)
+          byteListener.receive(body, channelId(index));
+        else
+        {
+          // coalesced bodies are handed over one record at a time, each record still ends with its separator
+          byte[] array = body.array();
+          int start = body.position();
+          int limit = body.limit();
+          while (start < limit)
           {
-            start();
+            int end = indexOf(array, limit, separator, start);
+            int next = (end < 0) ? limit : end + separator.length;
+            byteListener.receive(ByteBuffer.wrap(array, start, next - start), channelId(index));
+            start = next;
           }
-          catch (RunningException e)
+        }
+        metrics.recordLatency(System.nanoTime() - delivery.getArrivalTime());
+      }
+      catch (DataFormatException e)
+      {
+        LOGGER.error("TRANSPORT_IN_DECOMPRESSION_ERROR", delivery.getProperties().getContentEncoding(), e.getMessage());
+      }
+      catch (RuntimeException e)
+      {
+        LOGGER.error("", e);
+      }
+    }
+  }
+
+  /**
+   * Returns the delivered body, decompressed into this thread's codec buffer if its content-encoding says so.
+   */
+  private ByteBuffer decode(RabbitMQQueueingConsumer.Delivery delivery) throws DataFormatException
+  {
+    BasicProperties properties = delivery.getProperties();
+    RabbitMQCompression compression = (properties != null) ? RabbitMQCompression.fromContentEncoding(properties.getContentEncoding()) : null;
+    if (compression == null || RabbitMQCompression.None.equals(compression))
+      return ByteBuffer.wrap(delivery.getBody());
+    return RabbitMQCodec.get().decompress(delivery.getBody(), compression, maxDecompressedSize);
+  }
+
+  private byte[] recordSeparator(BasicProperties properties)
+  {
+    Map<String, Object> headers = (properties != null) ? properties.getHeaders() : null;
+    Object value = (headers != null) ? headers.get(RabbitMQCoalescer.RECORD_SEPARATOR_HEADER) : null;
+    if (value == null)
+      return null;
+    String text = value.toString();
+    Map.Entry<String, byte[]> cached = recordSeparator;
+    if (cached == null || !cached.getKey().equals(text))
+    {
+      cached = new AbstractMap.SimpleImmutableEntry<String, byte[]>(text, RabbitMQCoalescer.parseSeparator(text));
+      recordSeparator = cached;
+    }
+    return (cached.getValue().length > 0) ? cached.getValue() : null;
+  }
+
+  private static boolean endsWith(byte[] bytes, int length, byte[] suffix)
+  {
+    if (length < suffix.length)
+      return false;
+    for (int i = 0, offset = length - suffix.length; i < suffix.length; i++)
+      if (bytes[offset + i] != suffix[i])
+        return false;
+    return true;
+  }
+
+  private static int indexOf(byte[] bytes, int limit, byte[] separator, int from)
+  {
+    int last = limit - separator.length;
+    for (int i = from; i <= last; i++)
+    {
+      int j = 0;
+      while (j < separator.length && bytes[i + j] == separator[j])
+        j++;
+      if (j == separator.length)
+        return i;
+    }
+    return -1;
+  }
+
+  private static String channelId(int index)
+  {
+    return (index < CHANNEL_IDS.length) ? CHANNEL_IDS[index] : Integer.toString(index);
+  }
+
+  private class RabbitMQDispatcher implements Runnable
+  {
+    private final RabbitMQConsumer                        consumer;
+    private final int                                     index;
+    private final List<RabbitMQQueueingConsumer.Delivery> batch;
+    private byte[]                                        buffer  = new byte[0];
+    private volatile boolean                              running = true;
+    private Thread                                        thread;
+
+    public RabbitMQDispatcher(RabbitMQConsumer consumer, int index)
+    {
+      this.consumer = consumer;
+      this.index = index;
+      this.batch = new ArrayList<RabbitMQQueueingConsumer.Delivery>(batchMaxMessages);
+    }
+
+    @Override
+    public void run()
+    {
+      while (running && isRunning())
+      {
+        RabbitMQQueueingConsumer source = consumer.getConsumer(index);
+        if (source == null)
+          break;
+        try
+        {
+          RabbitMQQueueingConsumer.Delivery delivery = source.nextDelivery(100);
+          if (delivery != null)
           {
-            ;
+            batch.add(delivery);
+            if (batchMaxMessages > 1)
+              fill(source);
           }
-          break;
-        case DISCONNECTED:
-          disconnect("");
-          break;
-        case SHUTDOWN:
-          shutdown();
-          break;
-        case RECOVERY_FAILED:
-        case CREATION_FAILED:
-          LOGGER.error(event.getDetails());
-          disconnect(event.getDetails());
-          setRunningState(RunningState.ERROR);
-          break;
-        case RECOVERY_STARTED:
-          break;
-        case RECOVERY_COMPLETED:
-          break;
-        default:
-          break;
+        }
+        catch (Exception e)
+        {
+          // ignore
+        }
+        if (batch.isEmpty())
+          continue;
+        if (batch.size() == 1)
+          dispatch(index, batch.get(0));
+        else
+          dispatchBatch();
+        source.complete(batch);
+        batch.clear();
+      }
+    }
+
+    /**
+     * Adds whatever is already buffered to the batch, waiting no longer than batchMaxWait microseconds overall.
+     */
+    private void fill(RabbitMQQueueingConsumer source) throws InterruptedException
+    {
+      long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(batchMaxWait);
+      while (batch.size() < batchMaxMessages)
+      {
+        RabbitMQQueueingConsumer.Delivery delivery = source.nextDelivery(0);
+        if (delivery == null)
+        {
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0 || (delivery = source.nextDelivery(remaining, TimeUnit.NANOSECONDS)) == null)
+            break;
+        }
+        batch.add(delivery);
+      }
+    }
+
+    /**
+     * Joins the batch into a single separator-terminated buffer, leaving out empty bodies as dispatch does. Adapters
+     * consume what they are given before receive returns, so the buffer is reused for the next batch.
+     */
+    private void dispatchBatch()
+    {
+      int size = 0;
+      for (int i = 0; i < batch.size(); i++)
+      {
+        byte[] bytes = batch.get(i).getBody();
+        if (bytes == null || bytes.length == 0)
+          continue;
+        ByteBuffer body;
+        metrics.recordMessage(bytes.length);
+        try
+        {
+          body = decode(batch.get(i));
+        }
+        catch (DataFormatException e)
+        {
+          LOGGER.error("TRANSPORT_IN_DECOMPRESSION_ERROR", batch.get(i).getProperties().getContentEncoding(), e.getMessage());
+          continue;
+        }
+        int length = body.remaining();
+        if (length == 0)
+          continue;
+        if (buffer.length < size + length + batchSeparator.length)
+          buffer = Arrays.copyOf(buffer, Math.max(size + length + batchSeparator.length, buffer.length * 2));
+        body.get(buffer, size, length);
+        size += length;
+        if (!endsWith(buffer, size, batchSeparator))
+        {
+          System.arraycopy(batchSeparator, 0, buffer, size, batchSeparator.length);
+          size += batchSeparator.length;
+        }
+      }
+      if (size == 0)
+        return;
+      try
+      {
+        byteListener.receive(ByteBuffer.wrap(buffer, 0, size), channelId(index));
+        long now = System.nanoTime();
+        for (int i = 0; i < batch.size(); i++)
+          metrics.recordLatency(now - batch.get(i).getArrivalTime());
+      }
+      catch (RuntimeException e)
+      {
+        LOGGER.error("", e);
+      }
+    }
+
+    public void start(String name)
+    {
+      thread = new Thread(this, name);
+      thread.start();
+    }
+
+    public void stop()
+    {
+      running = false;
+    }
+
+    /**
+     * Waits for the dispatcher thread to finish, at most until the given System.nanoTime() deadline.
+     */
+    public void join(long deadline)
+    {
+      if (thread == null || thread == Thread.currentThread())
+        return;
+      try
+      {
+        TimeUnit.NANOSECONDS.timedJoin(thread, deadline - System.nanoTime());
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
       }
+      if (thread.isAlive())
+        LOGGER.warn("DISPATCHER_STOP_WARNING", thread.getName(), DISPATCHER_STOP_TIMEOUT);
     }
   }
 }
@@ -59,6 +59,9 @@ public class RabbitMQInboundTransportDefinition extends TransportDefinitionBase
       List<LabeledValue> exchangeTypeAllowedValues = new ArrayList<LabeledValue>();
       exchangeTypeAllowedValues.add(new LabeledValue(RabbitMQExchangeType.direct.toString(), RabbitMQExchangeType.direct.toString()));
       exchangeTypeAllowedValues.add(new LabeledValue(RabbitMQExchangeType.fanout.toString(), RabbitMQExchangeType.fanout.toString()));
+      exchangeTypeAllowedValues.add(new LabeledValue(RabbitMQExchangeType.topic.toString(), RabbitMQExchangeType.topic.toString()));
+      exchangeTypeAllowedValues.add(new LabeledValue(RabbitMQExchangeType.headers.toString(), RabbitMQExchangeType.headers.toString()));
+      exchangeTypeAllowedValues.add(new LabeledValue(RabbitMQExchangeType.consistentHash.toString(), RabbitMQExchangeType.consistentHash.toString()));
       propertyDefinitions.put("exchangeType", new PropertyDefinition("exchangeType", PropertyType.String, RabbitMQExchangeType.direct.toString(), "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_EXCHANGE_TYPE_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_EXCHANGE_TYPE_DESC}", true, false, exchangeTypeAllowedValues));
 
       List<LabeledValue> exchangeDurabilityAllowedValues = new ArrayList<LabeledValue>();
@@ -67,6 +70,7 @@ public class RabbitMQInboundTransportDefinition extends TransportDefinitionBase
       propertyDefinitions.put("exchangeDurability", new PropertyDefinition("exchangeDurability", PropertyType.String, RabbitMQDurability.Transient.toString(), "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_EXCHANGE_DURABILITY_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_EXCHANGE_DURABILITY_DESC}", true, false, exchangeDurabilityAllowedValues));
 
       propertyDefinitions.put("exchangeAutoDelete", new PropertyDefinition("exchangeAutoDelete", PropertyType.Boolean, "true", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_EXCHANGE_AUTO_DELETE_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_EXCHANGE_AUTO_DELETE_DESC}", true, false));
+      propertyDefinitions.put("alternateExchange", new PropertyDefinition("alternateExchange", PropertyType.String, "", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_EXCHANGE_ALTERNATE_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_EXCHANGE_ALTERNATE_DESC}", false, false));
 
       // Queue properties
       propertyDefinitions.put("queueName", new PropertyDefinition("queueName", PropertyType.String, null, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_QUEUE_NAME_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_QUEUE_NAME_DESC}", true, false));
@@ -78,9 +82,67 @@ public class RabbitMQInboundTransportDefinition extends TransportDefinitionBase
 
       propertyDefinitions.put("queueExclusive", new PropertyDefinition("queueExclusive", PropertyType.Boolean, "false", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_QUEUE_EXCLUSIVE_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_QUEUE_EXCLUSIVE_DESC}", true, false));
       propertyDefinitions.put("queueAutoDelete", new PropertyDefinition("queueAutoDelete", PropertyType.Boolean, "true", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_QUEUE_AUTO_DELETE_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_QUEUE_AUTO_DELETE_DESC}", true, false));
-
-      propertyDefinitions.put("prefetchCount", new PropertyDefinition("prefetchCount", PropertyType.Integer, 1, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_QOS_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_QOS_DESC}", false, false));
+      List<LabeledValue> queueTypeAllowedValues = new ArrayList<LabeledValue>();
+      queueTypeAllowedValues.add(new LabeledValue(RabbitMQQueueType.Classic.toString(), RabbitMQQueueType.Classic.toString()));
+      queueTypeAllowedValues.add(new LabeledValue(RabbitMQQueueType.Quorum.toString(), RabbitMQQueueType.Quorum.toString()));
+      queueTypeAllowedValues.add(new LabeledValue(RabbitMQQueueType.Stream.toString(), RabbitMQQueueType.Stream.toString()));
+      propertyDefinitions.put("queueType", new PropertyDefinition("queueType", PropertyType.String, RabbitMQQueueType.Classic.toString(), "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_QUEUE_TYPE_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_QUEUE_TYPE_DESC}", false, false, queueTypeAllowedValues));
+      propertyDefinitions.put("queueMaxLength", new PropertyDefinition("queueMaxLength", PropertyType.Integer, 0, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_QUEUE_MAX_LENGTH_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_QUEUE_MAX_LENGTH_DESC}", false, false));
+      propertyDefinitions.put("queueMaxLengthBytes", new PropertyDefinition("queueMaxLengthBytes", PropertyType.Long, 0L, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_QUEUE_MAX_LENGTH_BYTES_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_QUEUE_MAX_LENGTH_BYTES_DESC}", false, false));
+      List<LabeledValue> queueOverflowAllowedValues = new ArrayList<LabeledValue>();
+      queueOverflowAllowedValues.add(new LabeledValue(RabbitMQQueueOverflow.DropHead.toString(), RabbitMQQueueOverflow.DropHead.toString()));
+      queueOverflowAllowedValues.add(new LabeledValue(RabbitMQQueueOverflow.RejectPublish.toString(), RabbitMQQueueOverflow.RejectPublish.toString()));
+      queueOverflowAllowedValues.add(new LabeledValue(RabbitMQQueueOverflow.RejectPublishDlx.toString(), RabbitMQQueueOverflow.RejectPublishDlx.toString()));
+      propertyDefinitions.put("queueOverflow", new PropertyDefinition("queueOverflow", PropertyType.String, RabbitMQQueueOverflow.DropHead.toString(), "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_QUEUE_OVERFLOW_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_QUEUE_OVERFLOW_DESC}", false, false, queueOverflowAllowedValues));
+      propertyDefinitions.put("queueMessageTtl", new PropertyDefinition("queueMessageTtl", PropertyType.Integer, 0, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_QUEUE_MESSAGE_TTL_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_QUEUE_MESSAGE_TTL_DESC}", false, false));
+      propertyDefinitions.put("queueLazy", new PropertyDefinition("queueLazy", PropertyType.Boolean, "false", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_QUEUE_LAZY_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_QUEUE_LAZY_DESC}", false, false));
+
+      propertyDefinitions.put("prefetchCount", new PropertyDefinition("prefetchCount", PropertyType.Integer, 250, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_QOS_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_QOS_DESC}", false, false));
       propertyDefinitions.put("routingKey", new PropertyDefinition("routingKey", PropertyType.String, "", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_ROUTING_KEY_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_ROUTING_KEY_DESC}", false, false));
+      propertyDefinitions.put("bindingHeaders", new PropertyDefinition("bindingHeaders", PropertyType.String, "", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_BINDING_HEADERS_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_BINDING_HEADERS_DESC}", false, false));
+      List<LabeledValue> bindingMatchAllowedValues = new ArrayList<LabeledValue>();
+      bindingMatchAllowedValues.add(new LabeledValue(RabbitMQHeadersMatch.All.toString(), RabbitMQHeadersMatch.All.toString()));
+      bindingMatchAllowedValues.add(new LabeledValue(RabbitMQHeadersMatch.Any.toString(), RabbitMQHeadersMatch.Any.toString()));
+      propertyDefinitions.put("bindingMatch", new PropertyDefinition("bindingMatch", PropertyType.String, RabbitMQHeadersMatch.All.toString(), "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_BINDING_MATCH_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_BINDING_MATCH_DESC}", false, false, bindingMatchAllowedValues));
+      propertyDefinitions.put("geohashPrefixes", new PropertyDefinition("geohashPrefixes", PropertyType.String, "", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_GEOHASH_PREFIXES_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_GEOHASH_PREFIXES_DESC}", false, false));
+      propertyDefinitions.put("shardCount", new PropertyDefinition("shardCount", PropertyType.Integer, 0, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_SHARD_COUNT_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_SHARD_COUNT_DESC}", false, false));
+      propertyDefinitions.put("shardHeartbeatInterval", new PropertyDefinition("shardHeartbeatInterval", PropertyType.Integer, 5000, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_SHARD_HEARTBEAT_INTERVAL_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_SHARD_HEARTBEAT_INTERVAL_DESC}", false, false));
+      propertyDefinitions.put("consumerConcurrency", new PropertyDefinition("consumerConcurrency", PropertyType.Integer, 1, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_CONSUMER_CONCURRENCY_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_CONSUMER_CONCURRENCY_DESC}", false, false));
+      propertyDefinitions.put("bufferCapacity", new PropertyDefinition("bufferCapacity", PropertyType.Integer, 1000, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_BUFFER_CAPACITY_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_BUFFER_CAPACITY_DESC}", false, false));
+      List<LabeledValue> dispatchModeAllowedValues = new ArrayList<LabeledValue>();
+      dispatchModeAllowedValues.add(new LabeledValue(RabbitMQDispatchMode.Queued.toString(), RabbitMQDispatchMode.Queued.toString()));
+      dispatchModeAllowedValues.add(new LabeledValue(RabbitMQDispatchMode.Direct.toString(), RabbitMQDispatchMode.Direct.toString()));
+      propertyDefinitions.put("dispatchMode", new PropertyDefinition("dispatchMode", PropertyType.String, RabbitMQDispatchMode.Queued.toString(), "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_DISPATCH_MODE_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_DISPATCH_MODE_DESC}", false, false, dispatchModeAllowedValues));
+      List<LabeledValue> sheddingPolicyAllowedValues = new ArrayList<LabeledValue>();
+      sheddingPolicyAllowedValues.add(new LabeledValue(RabbitMQSheddingPolicy.None.toString(), RabbitMQSheddingPolicy.None.toString()));
+      sheddingPolicyAllowedValues.add(new LabeledValue(RabbitMQSheddingPolicy.DropOldest.toString(), RabbitMQSheddingPolicy.DropOldest.toString()));
+      sheddingPolicyAllowedValues.add(new LabeledValue(RabbitMQSheddingPolicy.DropNewest.toString(), RabbitMQSheddingPolicy.DropNewest.toString()));
+      sheddingPolicyAllowedValues.add(new LabeledValue(RabbitMQSheddingPolicy.Sample.toString(), RabbitMQSheddingPolicy.Sample.toString()));
+      propertyDefinitions.put("sheddingPolicy", new PropertyDefinition("sheddingPolicy", PropertyType.String, RabbitMQSheddingPolicy.None.toString(), "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_SHEDDING_POLICY_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_SHEDDING_POLICY_DESC}", false, false, sheddingPolicyAllowedValues));
+      List<LabeledValue> sheddingTriggerAllowedValues = new ArrayList<LabeledValue>();
+      sheddingTriggerAllowedValues.add(new LabeledValue(RabbitMQSheddingTrigger.Depth.toString(), RabbitMQSheddingTrigger.Depth.toString()));
+      sheddingTriggerAllowedValues.add(new LabeledValue(RabbitMQSheddingTrigger.Age.toString(), RabbitMQSheddingTrigger.Age.toString()));
+      propertyDefinitions.put("sheddingTrigger", new PropertyDefinition("sheddingTrigger", PropertyType.String, RabbitMQSheddingTrigger.Depth.toString(), "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_SHEDDING_TRIGGER_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_SHEDDING_TRIGGER_DESC}", false, false, sheddingTriggerAllowedValues));
+      propertyDefinitions.put("sheddingHighWatermark", new PropertyDefinition("sheddingHighWatermark", PropertyType.Integer, 200, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_SHEDDING_HIGH_WATERMARK_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_SHEDDING_HIGH_WATERMARK_DESC}", false, false));
+      propertyDefinitions.put("sheddingLowWatermark", new PropertyDefinition("sheddingLowWatermark", PropertyType.Integer, 100, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_SHEDDING_LOW_WATERMARK_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_SHEDDING_LOW_WATERMARK_DESC}", false, false));
+      propertyDefinitions.put("sheddingSampleRate", new PropertyDefinition("sheddingSampleRate", PropertyType.Integer, 10, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_SHEDDING_SAMPLE_RATE_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_SHEDDING_SAMPLE_RATE_DESC}", false, false));
+      List<LabeledValue> conflationModeAllowedValues = new ArrayList<LabeledValue>();
+      conflationModeAllowedValues.add(new LabeledValue(RabbitMQConflationMode.None.toString(), RabbitMQConflationMode.None.toString()));
+      conflationModeAllowedValues.add(new LabeledValue(RabbitMQConflationMode.Field.toString(), RabbitMQConflationMode.Field.toString()));
+      conflationModeAllowedValues.add(new LabeledValue(RabbitMQConflationMode.Header.toString(), RabbitMQConflationMode.Header.toString()));
+      propertyDefinitions.put("conflationMode", new PropertyDefinition("conflationMode", PropertyType.String, RabbitMQConflationMode.None.toString(), "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_CONFLATION_MODE_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_CONFLATION_MODE_DESC}", false, false, conflationModeAllowedValues));
+      propertyDefinitions.put("conflationKey", new PropertyDefinition("conflationKey", PropertyType.String, "", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_CONFLATION_KEY_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_CONFLATION_KEY_DESC}", false, false));
+      propertyDefinitions.put("conflationFieldSeparator", new PropertyDefinition("conflationFieldSeparator", PropertyType.String, ",", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_CONFLATION_FIELD_SEPARATOR_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_CONFLATION_FIELD_SEPARATOR_DESC}", false, false));
+      List<LabeledValue> ackModeAllowedValues = new ArrayList<LabeledValue>();
+      ackModeAllowedValues.add(new LabeledValue(RabbitMQAcknowledgementMode.Auto.toString(), RabbitMQAcknowledgementMode.Auto.toString()));
+      ackModeAllowedValues.add(new LabeledValue(RabbitMQAcknowledgementMode.ManualBatched.toString(), RabbitMQAcknowledgementMode.ManualBatched.toString()));
+      propertyDefinitions.put("acknowledgementMode", new PropertyDefinition("acknowledgementMode", PropertyType.String, RabbitMQAcknowledgementMode.Auto.toString(), "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_ACK_MODE_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_ACK_MODE_DESC}", false, false, ackModeAllowedValues));
+      propertyDefinitions.put("ackBatchSize", new PropertyDefinition("ackBatchSize", PropertyType.Integer, 100, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_ACK_BATCH_SIZE_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_ACK_BATCH_SIZE_DESC}", false, false));
+      propertyDefinitions.put("ackInterval", new PropertyDefinition("ackInterval", PropertyType.Integer, 1000, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_ACK_INTERVAL_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_ACK_INTERVAL_DESC}", false, false));
+      propertyDefinitions.put("batchMaxMessages", new PropertyDefinition("batchMaxMessages", PropertyType.Integer, 1, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_BATCH_MAX_MESSAGES_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_BATCH_MAX_MESSAGES_DESC}", false, false));
+      propertyDefinitions.put("batchMaxWait", new PropertyDefinition("batchMaxWait", PropertyType.Integer, 1000, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_BATCH_MAX_WAIT_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_BATCH_MAX_WAIT_DESC}", false, false));
+      propertyDefinitions.put("batchSeparator", new PropertyDefinition("batchSeparator", PropertyType.String, "\\n", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_BATCH_SEPARATOR_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_BATCH_SEPARATOR_DESC}", false, false));
+      propertyDefinitions.put("maxDecompressedSize", new PropertyDefinition("maxDecompressedSize", PropertyType.Integer, 64, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_MAX_DECOMPRESSED_SIZE_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_IN_MAX_DECOMPRESSED_SIZE_DESC}", false, false));
     }
     catch (PropertyException e)
     {
@@ -0,0 +1,112 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+
+package com.esri.geoevent.transport.rabbitmq;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which deliveries a {@link RabbitMQQueueingConsumer} discards while its buffer is overloaded. Shedding starts
+ * once the buffer depth or the age of its oldest delivery reaches the high watermark and stops once it is back at the
+ * low watermark, so that it does not flap around a single threshold. The age counts from the publish time the message
+ * carries, so that it includes the time spent in the broker, or from its arrival when it carries none.
+ */
+public class RabbitMQLoadShedder
+{
+  /**
+   * The oldest publish time given when the buffer is empty. Any value of {@link System#nanoTime()}, 0 included, can be
+   * a real publish time.
+   */
+  public static final long              NO_DELIVERY = Long.MIN_VALUE;
+  private final RabbitMQSheddingPolicy  policy;
+  private final RabbitMQSheddingTrigger trigger;
+  private final long                    highWatermark;
+  private final long                    lowWatermark;
+  private final int                     sampleRate;
+  private final LongAdder               shed;
+  private volatile boolean              active;
+
+  /**
+   * @param highWatermark deliveries for {@link RabbitMQSheddingTrigger#Depth}, milliseconds for
+   *          {@link RabbitMQSheddingTrigger#Age}
+   * @param sampleRate the percentage of deliveries {@link RabbitMQSheddingPolicy#Sample} keeps while shedding
+   * @param shed counts the discarded deliveries, shared by the shedders of a transport
+   */
+  public RabbitMQLoadShedder(RabbitMQSheddingPolicy policy, RabbitMQSheddingTrigger trigger, long highWatermark, long lowWatermark, int sampleRate, LongAdder shed)
+  {
+    this.policy = policy;
+    this.trigger = trigger;
+    this.highWatermark = RabbitMQSheddingTrigger.Age.equals(trigger) ? TimeUnit.MILLISECONDS.toNanos(highWatermark) : highWatermark;
+    this.lowWatermark = RabbitMQSheddingTrigger.Age.equals(trigger) ? TimeUnit.MILLISECONDS.toNanos(lowWatermark) : lowWatermark;
+    this.sampleRate = sampleRate;
+    this.shed = shed;
+  }
+
+  public boolean isActive()
+  {
+    return active;
+  }
+
+  /**
+   * @param depth the number of buffered deliveries
+   * @param oldestPublished the {@link RabbitMQQueueingConsumer.Delivery#getPublishTime()} of the oldest buffered
+   *          delivery, {@link #NO_DELIVERY} if there is none
+   * @return whether the buffer is overloaded
+   */
+  public boolean update(int depth, long oldestPublished)
+  {
+    long load = RabbitMQSheddingTrigger.Age.equals(trigger) ? ((oldestPublished != NO_DELIVERY) ? System.nanoTime() - oldestPublished : 0) : depth;
+    if (load >= highWatermark)
+      active = true;
+    else if (load <= lowWatermark)
+      active = false;
+    return active;
+  }
+
+  /**
+   * Whether an overloaded buffer discards the delivery that has just arrived.
+   */
+  public boolean dropsNewest()
+  {
+    if (RabbitMQSheddingPolicy.DropNewest.equals(policy))
+      return true;
+    return RabbitMQSheddingPolicy.Sample.equals(policy) && ThreadLocalRandom.current().nextInt(100) >= sampleRate;
+  }
+
+  /**
+   * Whether an overloaded buffer discards its oldest deliveries instead of handing them off.
+   */
+  public boolean dropsOldest()
+  {
+    return RabbitMQSheddingPolicy.DropOldest.equals(policy);
+  }
+
+  public void shed()
+  {
+    shed.increment();
+  }
+}
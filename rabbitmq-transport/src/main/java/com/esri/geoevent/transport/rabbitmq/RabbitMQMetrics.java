@@ -0,0 +1,431 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+
+package com.esri.geoevent.transport.rabbitmq;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+/**
+ * Per-transport counters, published as an MBean on the platform MBean server. Counters are striped so that recording
+ * never takes a lock; rates are one-minute moving averages updated on the shared scheduler.
+ */
+public class RabbitMQMetrics implements RabbitMQMetricsMBean
+{
+  private static final BundleLogger     LOGGER        = BundleLoggerFactory.getLogger(RabbitMQMetrics.class);
+  private static final String           DOMAIN        = "com.esri.geoevent.transport.rabbitmq";
+  private static final long             TICK_INTERVAL = 5;
+  private static final double           ALPHA         = 1 - Math.exp(-TICK_INTERVAL / 60.0);
+  private final String                  direction;
+  private final LongAdder               messages      = new LongAdder();
+  private final LongAdder               bytes         = new LongAdder();
+  private final LongAdder               dropped       = new LongAdder();
+  private final LongAdder               failed        = new LongAdder();
+  private final LongAdder               reconnects    = new LongAdder();
+  private final RabbitMQHistogram       latency       = new RabbitMQHistogram();
+  private volatile RabbitMQConsumer     consumer;
+  private volatile RabbitMQProducer     producer;
+  private volatile RabbitMQPublishQueue publishQueue;
+  private volatile RabbitMQSpool        spool;
+  private volatile double               messageRate;
+  private volatile double               byteRate;
+  private long                          lastMessages;
+  private long                          lastBytes;
+  private long                          disconnectedSince;
+  private long                          disconnectedNanos;
+  private ObjectName                    objectName;
+  private ScheduledFuture<?>            tickTask;
+
+  public RabbitMQMetrics(String direction)
+  {
+    this.direction = direction;
+  }
+
+  /**
+   * Registers the metrics under the given name, replacing a previous registration of this instance.
+   */
+  public synchronized void register(String name)
+  {
+    unregister();
+    try
+    {
+      ObjectName objectName = new ObjectName(DOMAIN + ":type=" + direction + ",name=" + ObjectName.quote(String.valueOf(name)) + ",id=" + Integer.toHexString(System.identityHashCode(this)));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(this, RabbitMQMetricsMBean.class), objectName);
+      this.objectName = objectName;
+    }
+    catch (JMException e)
+    {
+      LOGGER.warn("METRICS_REGISTRATION_ERROR", name, e.getMessage());
+    }
+    tickTask = RabbitMQScheduler.getExecutor().scheduleAtFixedRate(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          tick();
+        }
+      }, TICK_INTERVAL, TICK_INTERVAL, TimeUnit.SECONDS);
+  }
+
+  public synchronized void unregister()
+  {
+    if (tickTask != null)
+    {
+      tickTask.cancel(false);
+      tickTask = null;
+    }
+    if (objectName != null)
+    {
+      try
+      {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(objectName))
+          server.unregisterMBean(objectName);
+      }
+      catch (JMException e)
+      {
+        LOGGER.debug("METRICS_REGISTRATION_ERROR", objectName, e.getMessage());
+      }
+      objectName = null;
+    }
+  }
+
+  private synchronized void tick()
+  {
+    long currentMessages = messages.sum();
+    long currentBytes = bytes.sum();
+    messageRate += ALPHA * ((double) (currentMessages - lastMessages) / TICK_INTERVAL - messageRate);
+    byteRate += ALPHA * ((double) (currentBytes - lastBytes) / TICK_INTERVAL - byteRate);
+    lastMessages = currentMessages;
+    lastBytes = currentBytes;
+  }
+
+  public void setConsumer(RabbitMQConsumer consumer)
+  {
+    this.consumer = consumer;
+  }
+
+  public void setProducer(RabbitMQProducer producer)
+  {
+    this.producer = producer;
+  }
+
+  public void setPublishQueue(RabbitMQPublishQueue publishQueue)
+  {
+    this.publishQueue = publishQueue;
+  }
+
+  public void setSpool(RabbitMQSpool spool)
+  {
+    this.spool = spool;
+  }
+
+  public void recordMessage(int size)
+  {
+    messages.increment();
+    bytes.add(size);
+  }
+
+  public void recordLatency(long nanos)
+  {
+    latency.record(nanos);
+  }
+
+  public void recordDropped()
+  {
+    dropped.increment();
+  }
+
+  public void recordFailed()
+  {
+    failed.increment();
+  }
+
+  public synchronized void connected()
+  {
+    if (disconnectedSince != 0)
+    {
+      disconnectedNanos += System.nanoTime() - disconnectedSince;
+      disconnectedSince = 0;
+      reconnects.increment();
+    }
+  }
+
+  public synchronized void disconnected()
+  {
+    if (disconnectedSince == 0)
+      disconnectedSince = System.nanoTime();
+  }
+
+  @Override
+  public String getDirection()
+  {
+    return direction;
+  }
+
+  @Override
+  public synchronized boolean isConnected()
+  {
+    return disconnectedSince == 0;
+  }
+
+  @Override
+  public long getMessages()
+  {
+    return messages.sum();
+  }
+
+  @Override
+  public long getBytes()
+  {
+    return bytes.sum();
+  }
+
+  @Override
+  public double getMessageRate()
+  {
+    return messageRate;
+  }
+
+  @Override
+  public double getByteRate()
+  {
+    return byteRate;
+  }
+
+  @Override
+  public long getDroppedMessages()
+  {
+    RabbitMQPublishQueue queue = publishQueue;
+    RabbitMQSpool spool = this.spool;
+    return dropped.sum() + ((queue != null) ? queue.getDroppedCount() : 0) + ((spool != null) ? spool.getDroppedCount() : 0);
+  }
+
+  @Override
+  public long getSpooledMessages()
+  {
+    RabbitMQSpool spool = this.spool;
+    return (spool != null) ? spool.getSpooledCount() : 0;
+  }
+
+  @Override
+  public long getSpoolBacklog()
+  {
+    RabbitMQSpool spool = this.spool;
+    return (spool != null) ? spool.getBacklog() : 0;
+  }
+
+  @Override
+  public long getShedMessages()
+  {
+    RabbitMQConsumer consumer = this.consumer;
+    return (consumer != null) ? consumer.getShedCount() : 0;
+  }
+
+  @Override
+  public boolean isShedding()
+  {
+    RabbitMQConsumer consumer = this.consumer;
+    return consumer != null && consumer.isShedding();
+  }
+
+  @Override
+  public long getConflatedMessages()
+  {
+    RabbitMQConsumer consumer = this.consumer;
+    return (consumer != null) ? consumer.getConflatedCount() : 0;
+  }
+
+  @Override
+  public long getFailedMessages()
+  {
+    return failed.sum();
+  }
+
+  @Override
+  public int getBacklog()
+  {
+    RabbitMQConsumer consumer = this.consumer;
+    RabbitMQPublishQueue queue = publishQueue;
+    return ((consumer != null) ? consumer.getBacklog() : 0) + ((queue != null) ? queue.size() : 0);
+  }
+
+  @Override
+  public int getOwnedShards()
+  {
+    RabbitMQConsumer consumer = this.consumer;
+    return (consumer != null) ? consumer.getOwnedShards() : 0;
+  }
+
+  @Override
+  public int getClusterMembers()
+  {
+    RabbitMQConsumer consumer = this.consumer;
+    return (consumer != null) ? consumer.getClusterMembers() : 0;
+  }
+
+  @Override
+  public long getReconnects()
+  {
+    return reconnects.sum();
+  }
+
+  @Override
+  public synchronized long getDisconnectedTime()
+  {
+    long nanos = disconnectedNanos;
+    if (disconnectedSince != 0)
+      nanos += System.nanoTime() - disconnectedSince;
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+
+  @Override
+  public long getConnectAttempts()
+  {
+    RabbitMQConnectionBroker broker = getBroker();
+    return (broker != null) ? broker.getConnectAttempts() : 0;
+  }
+
+  @Override
+  public long getConnectFailures()
+  {
+    RabbitMQConnectionBroker broker = getBroker();
+    return (broker != null) ? broker.getConnectFailures() : 0;
+  }
+
+  @Override
+  public int getConsecutiveConnectFailures()
+  {
+    RabbitMQConnectionBroker broker = getBroker();
+    return (broker != null) ? broker.getConsecutiveConnectFailures() : 0;
+  }
+
+  @Override
+  public long getNextReconnectDelay()
+  {
+    RabbitMQConnectionBroker broker = getBroker();
+    return (broker != null) ? broker.getNextReconnectDelay() : 0;
+  }
+
+  @Override
+  public String getLastConnectError()
+  {
+    RabbitMQConnectionBroker broker = getBroker();
+    return (broker != null) ? broker.getLastConnectError() : null;
+  }
+
+  private RabbitMQConnectionBroker getBroker()
+  {
+    RabbitMQConsumer consumer = this.consumer;
+    if (consumer != null)
+      return consumer.getBroker();
+    RabbitMQProducer producer = this.producer;
+    return (producer != null) ? producer.getBroker() : null;
+  }
+
+  @Override
+  public double getLatencyMean()
+  {
+    return latency.getMean();
+  }
+
+  @Override
+  public long getLatencyMedian()
+  {
+    return latency.getPercentile(50);
+  }
+
+  @Override
+  public long getLatency99thPercentile()
+  {
+    return latency.getPercentile(99);
+  }
+
+  @Override
+  public long getLatencyMax()
+  {
+    return latency.getMax();
+  }
+
+  @Override
+  public long[] getLatencyHistogram()
+  {
+    return latency.getBuckets();
+  }
+
+  @Override
+  public long getConfirmedMessages()
+  {
+    RabbitMQProducer producer = this.producer;
+    return (producer != null) ? producer.getConfirmedCount() : 0;
+  }
+
+  @Override
+  public long getNackedMessages()
+  {
+    RabbitMQProducer producer = this.producer;
+    return (producer != null) ? producer.getNackedCount() : 0;
+  }
+
+  @Override
+  public int getUnconfirmedMessages()
+  {
+    RabbitMQProducer producer = this.producer;
+    return (producer != null) ? producer.getUnconfirmedCount() : 0;
+  }
+
+  @Override
+  public double getAverageConfirmLatency()
+  {
+    RabbitMQProducer producer = this.producer;
+    return (producer != null) ? producer.getAverageConfirmLatency() : 0;
+  }
+
+  @Override
+  public synchronized void reset()
+  {
+    messages.reset();
+    bytes.reset();
+    dropped.reset();
+    failed.reset();
+    reconnects.reset();
+    latency.reset();
+    lastMessages = 0;
+    lastBytes = 0;
+    messageRate = 0;
+    byteRate = 0;
+    disconnectedNanos = 0;
+  }
+}
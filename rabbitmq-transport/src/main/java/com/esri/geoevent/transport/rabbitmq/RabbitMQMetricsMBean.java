@@ -0,0 +1,100 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+
+package com.esri.geoevent.transport.rabbitmq;
+
+/**
+ * Management interface of {@link RabbitMQMetrics}. Latencies are in microseconds: the time from arrival to the end
+ * of the adapter's receive call for inbound transports, the time spent publishing for outbound transports. Connect
+ * statistics belong to the connection, which is shared by the transports using the same server and credentials.
+ */
+public interface RabbitMQMetricsMBean
+{
+  String getDirection();
+
+  boolean isConnected();
+
+  long getMessages();
+
+  long getBytes();
+
+  double getMessageRate();
+
+  double getByteRate();
+
+  long getDroppedMessages();
+
+  long getSpooledMessages();
+
+  long getSpoolBacklog();
+
+  long getShedMessages();
+
+  boolean isShedding();
+
+  long getConflatedMessages();
+
+  long getFailedMessages();
+
+  int getBacklog();
+
+  int getOwnedShards();
+
+  int getClusterMembers();
+
+  long getReconnects();
+
+  long getDisconnectedTime();
+
+  long getConnectAttempts();
+
+  long getConnectFailures();
+
+  int getConsecutiveConnectFailures();
+
+  long getNextReconnectDelay();
+
+  String getLastConnectError();
+
+  double getLatencyMean();
+
+  long getLatencyMedian();
+
+  long getLatency99thPercentile();
+
+  long getLatencyMax();
+
+  long[] getLatencyHistogram();
+
+  long getConfirmedMessages();
+
+  long getNackedMessages();
+
+  int getUnconfirmedMessages();
+
+  double getAverageConfirmLatency();
+
+  void reset();
+}
@@ -24,22 +24,123 @@
 
 package com.esri.geoevent.transport.rabbitmq;
 
-import java.util.Observable;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public abstract class RabbitMQObservable extends Observable
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+/**
+ * Fans transport events out to registered listeners. Notification walks a copy-on-write snapshot without locking;
+ * listeners registered as asynchronous are called in order on the shared event executor so a slow handler never
+ * holds up the notifying thread.
+ */
+public abstract class RabbitMQObservable
 {
-  public void notifyObservers(RabbitMQConnectionStatus status, String details, Object... args)
+  private static final BundleLogger LOGGER        = BundleLoggerFactory.getLogger(RabbitMQObservable.class);
+  private final List<Registration>  registrations = new CopyOnWriteArrayList<Registration>();
+
+  public void addListener(RabbitMQTransportListener listener)
+  {
+    addListener(listener, false);
+  }
+
+  public synchronized void addListener(RabbitMQTransportListener listener, boolean async)
+  {
+    if (listener != null && find(listener) == null)
+      registrations.add(async ? new AsyncRegistration(listener) : new Registration(listener));
+  }
+
+  public synchronized void removeListener(RabbitMQTransportListener listener)
+  {
+    Registration registration = find(listener);
+    if (registration != null)
+    {
+      registrations.remove(registration);
+      registration.cancelled = true;
+    }
+  }
+
+  public void notifyListeners(RabbitMQConnectionStatus status, String details, Object... args)
   {
-    notifyObservers(new RabbitMQTransportEvent(status, details, args));
+    notifyListeners(new RabbitMQTransportEvent(status, details, args));
   }
 
-  public void notifyObservers(Object event)
+  public void notifyListeners(RabbitMQTransportEvent event)
   {
     if (event != null)
+      for (Registration registration : registrations)
+        registration.deliver(event);
+  }
+
+  private Registration find(RabbitMQTransportListener listener)
+  {
+    for (Registration registration : registrations)
+      if (registration.listener == listener)
+        return registration;
+    return null;
+  }
+
+  private static class Registration
+  {
+    final RabbitMQTransportListener listener;
+    volatile boolean                cancelled;
+
+    Registration(RabbitMQTransportListener listener)
+    {
+      this.listener = listener;
+    }
+
+    void deliver(RabbitMQTransportEvent event)
+    {
+      if (cancelled)
+        return;
+      try
+      {
+        listener.onTransportEvent(event);
+      }
+      catch (RuntimeException e)
+      {
+        LOGGER.error(LOGGER.translate("LISTENER_NOTIFY_ERROR", event, e.getMessage()), e);
+      }
+    }
+  }
+
+  private static class AsyncRegistration extends Registration implements Runnable
+  {
+    private final Queue<RabbitMQTransportEvent> pending   = new ConcurrentLinkedQueue<RabbitMQTransportEvent>();
+    private final AtomicBoolean                 scheduled = new AtomicBoolean();
+
+    AsyncRegistration(RabbitMQTransportListener listener)
+    {
+      super(listener);
+    }
+
+    @Override
+    void deliver(RabbitMQTransportEvent event)
+    {
+      if (cancelled)
+        return;
+      pending.offer(event);
+      if (scheduled.compareAndSet(false, true))
+        RabbitMQScheduler.getEventExecutor().execute(this);
+    }
+
+    @Override
+    public void run()
     {
-      setChanged();
-      super.notifyObservers(event);
-      clearChanged();
+      // a single drain runs at a time, so each listener sees its events in the order they were raised
+      do
+      {
+        RabbitMQTransportEvent event;
+        while ((event = pending.poll()) != null)
+          super.deliver(event);
+        scheduled.set(false);
+      }
+      while (!pending.isEmpty() && scheduled.compareAndSet(false, true));
     }
   }
 }
@@ -32,17 +32,54 @@ import com.esri.ges.framework.i18n.BundleLogger;
 import com.esri.ges.framework.i18n.BundleLoggerFactory;
 import com.esri.ges.transport.OutboundTransportBase;
 import com.esri.ges.transport.TransportDefinition;
+import com.esri.ges.util.Converter;
+import com.esri.ges.util.Validator;
+import com.rabbitmq.client.AMQP;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Observable;
-import java.util.Observer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
-public class RabbitMQOutboundTransport extends OutboundTransportBase implements Observer
+public class RabbitMQOutboundTransport extends OutboundTransportBase implements RabbitMQTransportListener, RabbitMQUnconfirmedListener
 {
-  private static final BundleLogger LOGGER = BundleLoggerFactory.getLogger(RabbitMQOutboundTransport.class);
-  private RabbitMQConnectionInfo    connectionInfo;
-  private RabbitMQExchange          exchange;
-  private RabbitMQProducer          producer;
+  public static final String            PUBLISHED_HEADER      = "x-geoevent-published";
+  private static final BundleLogger     LOGGER                = BundleLoggerFactory.getLogger(RabbitMQOutboundTransport.class);
+  private static final long             DRAIN_INTERVAL        = 100;
+  private static final int              MAX_SPOOL_DIRECTORIES = 16;
+  private RabbitMQConnectionInfo        connectionInfo;
+  private RabbitMQExchange              exchange;
+  private RabbitMQRoutingMode           routingMode;
+  private RabbitMQRouter                routing;
+  private volatile RabbitMQProducer     producer;
+  private boolean                       publisherConfirms;
+  private int                           maxUnconfirmed;
+  private boolean                       publishTimestamps;
+  private RabbitMQPublishMode           publishMode;
+  private int                           publisherThreads;
+  private int                           publishBatchSize;
+  private RabbitMQOverflowPolicy        overflowPolicy;
+  private volatile RabbitMQPublishQueue publishQueue;
+  private List<RabbitMQPublisher>       publishers            = new ArrayList<RabbitMQPublisher>();
+  private volatile RabbitMQCoalescer    coalescer;
+  private byte[]                        coalesceSeparator;
+  private AMQP.BasicProperties          messageProperties;
+  private RabbitMQCompression           compression;
+  private int                           compressionThreshold;
+  private AMQP.BasicProperties          compressedProperties;
+  private boolean                       spooling;
+  private String                        spoolDirectory;
+  private boolean                       defaultSpoolDirectory;
+  private long                          spoolMaxSize;
+  private int                           spoolSegmentSize;
+  private int                           spoolDrainRate;
+  private volatile RabbitMQSpool        spool;
+  private RabbitMQSpoolDrainer          drainer;
+  private final RabbitMQMetrics         metrics               = new RabbitMQMetrics("Outbound");
 
   public RabbitMQOutboundTransport(TransportDefinition definition) throws ComponentException
   {
@@ -50,17 +87,161 @@ public class RabbitMQOutboundTransport extends OutboundTransportBase implements
   }
 
   @Override
-  public synchronized void receive(final ByteBuffer buffer, String channelId)
+  public void receive(final ByteBuffer buffer, String channelId)
   {
+    RabbitMQCoalescer coalescer = this.coalescer;
+    RabbitMQPublishQueue queue = publishQueue;
+    RabbitMQRoute route = routing.route(buffer);
+    if (coalescer != null)
+      coalescer.append(buffer, route);
+    else if (queue != null)
+    {
+      if (buffer == null || !buffer.hasRemaining())
+        return;
+      // the caller may reuse the buffer once we return
+      byte[] body = new byte[buffer.remaining()];
+      buffer.duplicate().get(body);
+      enqueue(queue, new RabbitMQMessage(route, body));
+    }
+    else
+      send(producer, route, buffer);
+  }
+
+  private void publish(RabbitMQRoute route, byte[] body)
+  {
+    RabbitMQPublishQueue queue = publishQueue;
+    if (queue != null)
+      enqueue(queue, new RabbitMQMessage(route, body));
+    else
+      send(producer, route, ByteBuffer.wrap(body), new RabbitMQMessage(route, body));
+  }
+
+  private void enqueue(RabbitMQPublishQueue queue, RabbitMQMessage message)
+  {
+    // the publishers only run while connected, the queue would fill up and then block or drop
+    if (spool != null && !isConnected())
+    {
+      if (!spool(message.getRoute(), ByteBuffer.wrap(message.getBody())))
+        metrics.recordDropped();
+      return;
+    }
     try
     {
-      if (producer != null)
-        producer.send(buffer);
+      // DropNewest counts its drops in the queue
+      if (!queue.offer(message) && !RabbitMQOverflowPolicy.DropNewest.equals(overflowPolicy) && !spool(message.getRoute(), ByteBuffer.wrap(message.getBody())))
+        metrics.recordDropped();
     }
-    catch (RabbitMQTransportException e)
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void send(RabbitMQProducer producer, RabbitMQRoute route, ByteBuffer buffer)
+  {
+    RabbitMQMessage message = null;
+    // the producer retains a copy for the spool until the broker confirms it, the caller may reuse the buffer
+    if (spool != null && publisherConfirms && buffer != null && buffer.hasRemaining())
+    {
+      byte[] body = new byte[buffer.remaining()];
+      buffer.duplicate().get(body);
+      message = new RabbitMQMessage(route, body);
+      buffer = ByteBuffer.wrap(body);
+    }
+    send(producer, route, buffer, message);
+  }
+
+  private void send(RabbitMQProducer producer, RabbitMQRoute route, ByteBuffer buffer, RabbitMQMessage message)
+  {
+    try
+    {
+      if (!transmit(producer, route, buffer, message) && !spool(route, buffer))
+        metrics.recordDropped();
+    }
+    catch (RabbitMQTransportException | RuntimeException e)
+    {
+      // a publisher thread must survive a failed message, or the rest of its batch and queue would be lost
+      if (!spool(route, buffer))
+        metrics.recordFailed();
+    }
+  }
+
+  /**
+   * Returns false if the message was not published because the producer is not connected. With a spool, the given
+   * message is spooled again if the broker does not confirm it.
+   */
+  private boolean transmit(RabbitMQProducer producer, RabbitMQRoute route, ByteBuffer buffer, RabbitMQMessage message) throws RabbitMQTransportException
+  {
+    if (spool == null)
+      message = null;
+    if (producer == null)
+      return false;
+    long start = System.nanoTime();
+    boolean sent;
+    int size;
+    if (compressedProperties != null && buffer.remaining() >= compressionThreshold)
+    {
+      byte[] body = RabbitMQCodec.get().compress(buffer, compression);
+      size = body.length;
+      sent = producer.send(ByteBuffer.wrap(body), route.getRoutingKey(), withHeaders(compressedProperties, route), message);
+    }
+    else
+    {
+      size = buffer.remaining();
+      sent = producer.send(buffer, route.getRoutingKey(), withHeaders(messageProperties, route), message);
+    }
+    if (sent)
+    {
+      metrics.recordMessage(size);
+      metrics.recordLatency(System.nanoTime() - start);
+    }
+    return sent;
+  }
+
+  /**
+   * Returns false if there is no spool to take the message. Messages the spool refuses are counted by the spool.
+   */
+  private boolean spool(RabbitMQRoute route, ByteBuffer buffer)
+  {
+    RabbitMQSpool spool = this.spool;
+    if (spool == null || buffer == null || !buffer.hasRemaining())
+      return false;
+    spool.append(route, buffer);
+    return true;
+  }
+
+  @Override
+  public void onUnconfirmed(RabbitMQMessage message)
+  {
+    spool(message.getRoute(), ByteBuffer.wrap(message.getBody()));
+  }
+
+  private boolean isConnected()
+  {
+    RabbitMQProducer producer = this.producer;
+    return producer != null && producer.isConnected();
+  }
+
+  /**
+   * Adds the route's headers and, with publishTimestamps, the publish time in milliseconds since the epoch, which
+   * consumers use to tell how long a message has been under way. Without either, the shared properties are used as is.
+   */
+  private AMQP.BasicProperties withHeaders(AMQP.BasicProperties properties, RabbitMQRoute route)
+  {
+    if (!publishTimestamps)
     {
-      ;
+      if (route.getHeaders() == null)
+        return properties;
+      if (properties == null)
+        return new AMQP.BasicProperties.Builder().headers(route.getHeaders()).build();
     }
+    Map<String, Object> headers = (route.getHeaders() != null) ? new HashMap<String, Object>(route.getHeaders()) : new HashMap<String, Object>();
+    if (properties != null && properties.getHeaders() != null)
+      headers.putAll(properties.getHeaders());
+    if (publishTimestamps)
+      headers.put(PUBLISHED_HEADER, System.currentTimeMillis());
+    AMQP.BasicProperties.Builder builder = (properties != null) ? properties.builder() : new AMQP.BasicProperties.Builder();
+    return builder.headers(headers).build();
   }
 
   @SuppressWarnings("incomplete-switch")
@@ -112,7 +293,89 @@ public class RabbitMQOutboundTransport extends OutboundTransportBase implements
     String exchangeDurability = getProperty("exchangeDurability").getValueAsString();
     String exchangeAutoDelete = getProperty("exchangeAutoDelete").getValueAsString();
     String routingKey = getProperty("routingKey").getValueAsString();
-    exchange = new RabbitMQExchange(exchangeName, exchangeType, exchangeDurability, exchangeAutoDelete, routingKey);
+    String alternateExchange = getProperty("alternateExchange").getValueAsString();
+    exchange = new RabbitMQExchange(exchangeName, exchangeType, exchangeDurability, exchangeAutoDelete, routingKey, null, null, alternateExchange);
+    byte[] routingFieldSeparator = RabbitMQCoalescer.parseSeparator(getProperty("routingFieldSeparator").getValueAsString());
+    byte fieldSeparator = (routingFieldSeparator.length > 0) ? routingFieldSeparator[0] : (byte) ',';
+    routingMode = Validator.valueOfIgnoreCase(RabbitMQRoutingMode.class, getProperty("routingMode").getValueAsString(), RabbitMQRoutingMode.Template);
+    if (RabbitMQRoutingMode.Geohash.equals(routingMode))
+      routing = new RabbitMQGeohashRouter(getProperty("geohashXField").getValueAsString(), getProperty("geohashYField").getValueAsString(), getProperty("geohashPrecisions").getValueAsString(), fieldSeparator);
+    else
+      routing = new RabbitMQRoutingTemplate(routingKey, exchange.getType(), fieldSeparator);
+
+    publisherConfirms = Converter.convertToBoolean(getProperty("publisherConfirms").getValueAsString(), false);
+    publishTimestamps = Converter.convertToBoolean(getProperty("publishTimestamps").getValueAsString(), false);
+    maxUnconfirmed = Converter.convertToInteger(getProperty("maxUnconfirmed").getValueAsString(), 1000);
+
+    publishMode = Validator.valueOfIgnoreCase(RabbitMQPublishMode.class, getProperty("publishMode").getValueAsString(), RabbitMQPublishMode.Sync);
+    publisherThreads = Math.max(1, Converter.convertToInteger(getProperty("publisherThreads").getValueAsString(), 1));
+    publishBatchSize = Math.max(1, Converter.convertToInteger(getProperty("publishBatchSize").getValueAsString(), 100));
+    if (publishQueue != null)
+      publishQueue.close();
+    if (RabbitMQPublishMode.Async.equals(publishMode))
+    {
+      int capacity = Converter.convertToInteger(getProperty("publishQueueCapacity").getValueAsString(), 10000);
+      overflowPolicy = Validator.valueOfIgnoreCase(RabbitMQOverflowPolicy.class, getProperty("overflowPolicy").getValueAsString(), RabbitMQOverflowPolicy.Block);
+      publishQueue = new RabbitMQPublishQueue(capacity, overflowPolicy);
+    }
+    else
+    {
+      overflowPolicy = null;
+      publishQueue = null;
+    }
+
+    boolean coalescing = Converter.convertToBoolean(getProperty("coalescing").getValueAsString(), false);
+    if (coalescing)
+    {
+      String separator = getProperty("coalesceSeparator").getValueAsString();
+      int maxBytes = Converter.convertToInteger(getProperty("coalesceMaxBytes").getValueAsString(), 65536);
+      int maxRecords = Converter.convertToInteger(getProperty("coalesceMaxRecords").getValueAsString(), 100);
+      long linger = Converter.convertToInteger(getProperty("coalesceLinger").getValueAsString(), 50);
+      coalesceSeparator = RabbitMQCoalescer.parseSeparator(separator);
+      coalescer = new RabbitMQCoalescer(coalesceSeparator, maxBytes, maxRecords, linger)
+        {
+          @Override
+          protected void publish(RabbitMQRoute route, byte[] body)
+          {
+            RabbitMQOutboundTransport.this.publish(route, body);
+          }
+        };
+      Map<String, Object> headers = new HashMap<String, Object>();
+      headers.put(RabbitMQCoalescer.RECORD_SEPARATOR_HEADER, separator);
+      messageProperties = new AMQP.BasicProperties.Builder().headers(headers).build();
+    }
+    else
+    {
+      coalescer = null;
+      coalesceSeparator = null;
+      messageProperties = null;
+    }
+
+    compression = Validator.valueOfIgnoreCase(RabbitMQCompression.class, getProperty("compression").getValueAsString(), RabbitMQCompression.None);
+    compressionThreshold = Converter.convertToInteger(getProperty("compressionThreshold").getValueAsString(), 1024);
+    if (!RabbitMQCompression.None.equals(compression))
+    {
+      AMQP.BasicProperties.Builder builder = (messageProperties != null) ? messageProperties.builder() : new AMQP.BasicProperties.Builder();
+      compressedProperties = builder.contentEncoding(compression.getContentEncoding()).build();
+    }
+    else
+      compressedProperties = null;
+
+    closeSpool();
+    spooling = Converter.convertToBoolean(getProperty("spooling").getValueAsString(), false);
+    spoolMaxSize = Converter.convertToLong(getProperty("spoolMaxSize").getValueAsString(), 1024L);
+    spoolSegmentSize = Converter.convertToInteger(getProperty("spoolSegmentSize").getValueAsString(), 16);
+    spoolDrainRate = Converter.convertToInteger(getProperty("spoolDrainRate").getValueAsString(), 1000);
+    spoolDirectory = getProperty("spoolDirectory").getValueAsString();
+    defaultSpoolDirectory = spoolDirectory == null || spoolDirectory.trim().isEmpty();
+    if (defaultSpoolDirectory)
+      spoolDirectory = new File(new File(System.getProperty("java.io.tmpdir"), "rabbitmq-spool"), (host + "-" + virtualHost + "-" + exchangeName).replaceAll("[^A-Za-z0-9._-]", "_")).getPath();
+    else
+      spoolDirectory = spoolDirectory.trim();
+    openSpool();
+
+    metrics.setPublishQueue(publishQueue);
+    metrics.register(exchangeName);
   }
 
   @Override
@@ -121,21 +384,90 @@ public class RabbitMQOutboundTransport extends OutboundTransportBase implements
     super.validate();
     connectionInfo.validate();
     exchange.validate();
+    if (RabbitMQRoutingMode.Geohash.equals(routingMode) && !RabbitMQExchangeType.topic.equals(exchange.getType()))
+      throw new ValidationException(LOGGER.translate("GEOHASH_EXCHANGE_VALIDATE_ERROR"));
+    // the inbound side splits on the separator, without one every coalesced message would arrive as a single record
+    if (coalescer != null && coalesceSeparator.length == 0)
+      throw new ValidationException(LOGGER.translate("COALESCE_SEPARATOR_VALIDATE_ERROR"));
+    if (!RabbitMQCodec.isAvailable(compression))
+      throw new ValidationException(LOGGER.translate("COMPRESSION_UNAVAILABLE_VALIDATE_ERROR", compression));
+    if (RabbitMQOverflowPolicy.Spool.equals(overflowPolicy) && !spooling)
+      throw new ValidationException(LOGGER.translate("SPOOL_OVERFLOW_VALIDATE_ERROR"));
+    if (spooling)
+    {
+      if (spoolMaxSize <= 0 || spoolSegmentSize <= 0 || spoolSegmentSize > 1024)
+        throw new ValidationException(LOGGER.translate("SPOOL_SIZE_VALIDATE_ERROR"));
+      if (spoolDrainRate <= 0)
+        throw new ValidationException(LOGGER.translate("SPOOL_DRAIN_RATE_VALIDATE_ERROR"));
+    }
+  }
+
+  /**
+   * Opens the spool unless it is open already. Outputs publishing to the same exchange share the default directory, so
+   * each one takes the first of it and its numbered siblings that no other spool holds. The spool keeps the route of
+   * every message, so an output that picks up another one's spool after a restart still publishes to the same place.
+   */
+  private synchronized void openSpool()
+  {
+    if (!spooling || spool != null || spoolMaxSize <= 0 || spoolSegmentSize <= 0 || spoolSegmentSize > 1024)
+      return;
+    IOException error = null;
+    for (int i = 0; spool == null && i < (defaultSpoolDirectory ? MAX_SPOOL_DIRECTORIES : 1); i++)
+    {
+      File directory = new File((i == 0) ? spoolDirectory : spoolDirectory + "-" + i);
+      try
+      {
+        spool = new RabbitMQSpool(directory, spoolMaxSize * 1024 * 1024, spoolSegmentSize * 1024 * 1024);
+      }
+      catch (IOException e)
+      {
+        error = e;
+      }
+    }
+    if (spool == null)
+      LOGGER.error("SPOOL_OPEN_ERROR", spoolDirectory, error.getMessage());
+    metrics.setSpool(spool);
   }
 
   private synchronized void connect()
   {
     disconnect("");
+    // running without the spool would silently lose the messages it is configured to keep
+    openSpool();
+    if (spooling && spool == null)
+    {
+      setErrorMessage(LOGGER.translate("SPOOL_UNAVAILABLE_ERROR", spoolDirectory));
+      setRunningState(RunningState.ERROR);
+      return;
+    }
     setRunningState(RunningState.STARTING);
     try
     {
       if (producer == null)
       {
         producer = new RabbitMQProducer(connectionInfo, exchange);
-        producer.addObserver(this);
+        producer.addListener(this, true);
+        producer.setUnconfirmedListener(this);
       }
+      producer.setPublisherConfirms(publisherConfirms, maxUnconfirmed);
+      metrics.setProducer(producer);
       producer.connect();
       setRunningState(RunningState.STARTED);
+      if (publishQueue != null)
+      {
+        publishQueue.open();
+        for (int i = 0; i < publisherThreads; i++)
+        {
+          RabbitMQPublisher publisher = new RabbitMQPublisher(producer, publishQueue);
+          publishers.add(publisher);
+          new Thread(publisher, "RabbitMQ-Outbound-" + exchange.getName() + "-" + i).start();
+        }
+      }
+      if (spool != null)
+      {
+        drainer = new RabbitMQSpoolDrainer(producer, spool);
+        new Thread(drainer, "RabbitMQ-Spool-" + exchange.getName()).start();
+      }
     }
     catch (RabbitMQTransportException e)
     {
@@ -147,6 +479,18 @@ public class RabbitMQOutboundTransport extends OutboundTransportBase implements
   private synchronized void disconnect(String reason)
   {
     setRunningState(RunningState.STOPPING);
+    if (coalescer != null)
+      coalescer.flush();
+    if (publishQueue != null)
+      publishQueue.close();
+    for (RabbitMQPublisher publisher : publishers)
+      publisher.stop();
+    publishers.clear();
+    if (drainer != null)
+    {
+      drainer.stop();
+      drainer = null;
+    }
     if (producer != null)
       producer.disconnect(reason);
     setErrorMessage(reason);
@@ -157,56 +501,180 @@ public class RabbitMQOutboundTransport extends OutboundTransportBase implements
   {
     if (producer != null)
     {
-      producer.deleteObserver(this);
+      producer.removeListener(this);
       producer.shutdown("");
       producer = null;
     }
   }
 
+  private synchronized void closeSpool()
+  {
+    if (spool != null)
+    {
+      try
+      {
+        spool.close();
+      }
+      catch (IOException e)
+      {
+        LOGGER.debug("SPOOL_CLOSE_ERROR", e.getMessage());
+      }
+      spool = null;
+    }
+  }
+
   public void shutdown()
   {
     shutdownProducer();
+    closeSpool();
+    metrics.unregister();
     super.shutdown();
   }
 
   @Override
-  public void update(Observable observable, Object obj)
+  public void onTransportEvent(RabbitMQTransportEvent event)
+  {
+    switch (event.getStatus())
+    {
+      case CREATED:
+      case RECOVERY:
+        metrics.connected();
+        try
+        {
+          start();
+        }
+        catch (RunningException e)
+        {
+          ;
+        }
+        break;
+      case DISCONNECTED:
+        metrics.disconnected();
+        disconnect("");
+        break;
+      case SHUTDOWN:
+        shutdown();
+        break;
+      case RECOVERY_FAILED:
+      case CREATION_FAILED:
+        LOGGER.error(event.getDetails());
+        metrics.disconnected();
+        disconnect(event.getDetails());
+        setRunningState(RunningState.ERROR);
+        break;
+      case RECOVERY_STARTED:
+        metrics.disconnected();
+        break;
+      case RECOVERY_COMPLETED:
+        metrics.connected();
+        break;
+      default:
+        break;
+    }
+  }
+
+  private class RabbitMQPublisher implements Runnable
   {
-    if (obj instanceof RabbitMQTransportEvent)
+    private final RabbitMQProducer      producer;
+    private final RabbitMQPublishQueue  queue;
+    private final List<RabbitMQMessage> batch;
+    private volatile boolean            running = true;
+
+    public RabbitMQPublisher(RabbitMQProducer producer, RabbitMQPublishQueue queue)
     {
-      RabbitMQTransportEvent event = (RabbitMQTransportEvent) obj;
-      switch (event.getStatus())
+      this.producer = producer;
+      this.queue = queue;
+      this.batch = new ArrayList<RabbitMQMessage>(publishBatchSize);
+    }
+
+    @Override
+    public void run()
+    {
+      while (running)
       {
-        case CREATED:
-        case RECOVERY:
-          try
-          {
-            start();
-          }
-          catch (RunningException e)
-          {
-            ;
-          }
-          break;
-        case DISCONNECTED:
-          disconnect("");
-          break;
-        case SHUTDOWN:
-          shutdown();
+        try
+        {
+          queue.drainTo(batch, publishBatchSize, 100, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
           break;
-        case RECOVERY_FAILED:
-        case CREATION_FAILED:
-          LOGGER.error(event.getDetails());
-          disconnect(event.getDetails());
-          setRunningState(RunningState.ERROR);
-          break;
-        case RECOVERY_STARTED:
-          break;
-        case RECOVERY_COMPLETED:
-          break;
-        default:
+        }
+        for (int i = 0; i < batch.size(); i++)
+          send(producer, batch.get(i).getRoute(), ByteBuffer.wrap(batch.get(i).getBody()), batch.get(i));
+        batch.clear();
+      }
+    }
+
+    public void stop()
+    {
+      running = false;
+    }
+  }
+
+  /**
+   * Publishes spooled messages alongside the live traffic, at no more than spoolDrainRate messages per second so that
+   * a large backlog does not crowd out the live messages. A message leaves the spool once it has been published; with
+   * publisher confirms, one the broker then fails to confirm is spooled again.
+   */
+  private class RabbitMQSpoolDrainer implements Runnable
+  {
+    private final RabbitMQProducer producer;
+    private final RabbitMQSpool    spool;
+    private volatile boolean       running = true;
+
+    public RabbitMQSpoolDrainer(RabbitMQProducer producer, RabbitMQSpool spool)
+    {
+      this.producer = producer;
+      this.spool = spool;
+    }
+
+    @Override
+    public void run()
+    {
+      // at most a tenth of a second's worth of messages at a time
+      double burst = Math.max(1.0, spoolDrainRate / 10.0);
+      double allowance = 0;
+      long last = System.nanoTime();
+      while (running)
+      {
+        long now = System.nanoTime();
+        allowance = Math.min(burst, allowance + (now - last) * spoolDrainRate / 1e9);
+        last = now;
+        while (allowance >= 1 && running)
+        {
+          RabbitMQMessage message = spool.peek();
+          if (message == null || !drain(message))
+            break;
+          spool.remove();
+          allowance--;
+        }
+        try
+        {
+          Thread.sleep(DRAIN_INTERVAL);
+        }
+        catch (InterruptedException e)
+        {
           break;
+        }
+      }
+    }
+
+    private boolean drain(RabbitMQMessage message)
+    {
+      try
+      {
+        return transmit(producer, message.getRoute(), ByteBuffer.wrap(message.getBody()), message);
       }
+      catch (RabbitMQTransportException e)
+      {
+        return false;
+      }
+    }
+
+    public void stop()
+    {
+      running = false;
     }
   }
 }
@@ -59,6 +59,9 @@ public class RabbitMQOutboundTransportDefinition extends TransportDefinitionBase
       List<LabeledValue> exchangeTypeAllowedValues = new ArrayList<LabeledValue>();
       exchangeTypeAllowedValues.add(new LabeledValue(RabbitMQExchangeType.direct.toString(), RabbitMQExchangeType.direct.toString()));
       exchangeTypeAllowedValues.add(new LabeledValue(RabbitMQExchangeType.fanout.toString(), RabbitMQExchangeType.fanout.toString()));
+      exchangeTypeAllowedValues.add(new LabeledValue(RabbitMQExchangeType.topic.toString(), RabbitMQExchangeType.topic.toString()));
+      exchangeTypeAllowedValues.add(new LabeledValue(RabbitMQExchangeType.headers.toString(), RabbitMQExchangeType.headers.toString()));
+      exchangeTypeAllowedValues.add(new LabeledValue(RabbitMQExchangeType.consistentHash.toString(), RabbitMQExchangeType.consistentHash.toString()));
       propertyDefinitions.put("exchangeType", new PropertyDefinition("exchangeType", PropertyType.String, RabbitMQExchangeType.direct.toString(), "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_EXCHANGE_TYPE_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_EXCHANGE_TYPE_DESC}", true, false, exchangeTypeAllowedValues));
 
       List<LabeledValue> exchangeDurabilityAllowedValues = new ArrayList<LabeledValue>();
@@ -67,7 +70,59 @@ public class RabbitMQOutboundTransportDefinition extends TransportDefinitionBase
       propertyDefinitions.put("exchangeDurability", new PropertyDefinition("exchangeDurability", PropertyType.String, RabbitMQDurability.Transient.toString(), "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_EXCHANGE_DURABILITY_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_EXCHANGE_DURABILITY_DESC}", true, false, exchangeDurabilityAllowedValues));
 
       propertyDefinitions.put("exchangeAutoDelete", new PropertyDefinition("exchangeAutoDelete", PropertyType.Boolean, "true", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_EXCHANGE_AUTO_DELETE_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_EXCHANGE_AUTO_DELETE_DESC}", true, false));
+      propertyDefinitions.put("alternateExchange", new PropertyDefinition("alternateExchange", PropertyType.String, "", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_EXCHANGE_ALTERNATE_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_EXCHANGE_ALTERNATE_DESC}", false, false));
       propertyDefinitions.put("routingKey", new PropertyDefinition("routingKey", PropertyType.String, "", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_ROUTING_KEY_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_ROUTING_KEY_DESC}", false, false));
+      propertyDefinitions.put("routingFieldSeparator", new PropertyDefinition("routingFieldSeparator", PropertyType.String, ",", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_ROUTING_FIELD_SEPARATOR_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_ROUTING_FIELD_SEPARATOR_DESC}", false, false));
+      List<LabeledValue> routingModeAllowedValues = new ArrayList<LabeledValue>();
+      routingModeAllowedValues.add(new LabeledValue(RabbitMQRoutingMode.Template.toString(), RabbitMQRoutingMode.Template.toString()));
+      routingModeAllowedValues.add(new LabeledValue(RabbitMQRoutingMode.Geohash.toString(), RabbitMQRoutingMode.Geohash.toString()));
+      propertyDefinitions.put("routingMode", new PropertyDefinition("routingMode", PropertyType.String, RabbitMQRoutingMode.Template.toString(), "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_ROUTING_MODE_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_ROUTING_MODE_DESC}", false, false, routingModeAllowedValues));
+      propertyDefinitions.put("geohashXField", new PropertyDefinition("geohashXField", PropertyType.String, "x", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_GEOHASH_X_FIELD_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_GEOHASH_X_FIELD_DESC}", false, false));
+      propertyDefinitions.put("geohashYField", new PropertyDefinition("geohashYField", PropertyType.String, "y", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_GEOHASH_Y_FIELD_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_GEOHASH_Y_FIELD_DESC}", false, false));
+      propertyDefinitions.put("geohashPrecisions", new PropertyDefinition("geohashPrecisions", PropertyType.String, "3,4", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_GEOHASH_PRECISIONS_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_GEOHASH_PRECISIONS_DESC}", false, false));
+
+      // Publishing properties
+      propertyDefinitions.put("publisherConfirms", new PropertyDefinition("publisherConfirms", PropertyType.Boolean, false, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_PUBLISHER_CONFIRMS_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_PUBLISHER_CONFIRMS_DESC}", false, false));
+      propertyDefinitions.put("maxUnconfirmed", new PropertyDefinition("maxUnconfirmed", PropertyType.Integer, 1000, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_MAX_UNCONFIRMED_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_MAX_UNCONFIRMED_DESC}", false, false));
+      propertyDefinitions.put("publishTimestamps", new PropertyDefinition("publishTimestamps", PropertyType.Boolean, false, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_PUBLISH_TIMESTAMPS_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_PUBLISH_TIMESTAMPS_DESC}", false, false));
+
+      List<LabeledValue> publishModeAllowedValues = new ArrayList<LabeledValue>();
+      publishModeAllowedValues.add(new LabeledValue(RabbitMQPublishMode.Sync.toString(), RabbitMQPublishMode.Sync.toString()));
+      publishModeAllowedValues.add(new LabeledValue(RabbitMQPublishMode.Async.toString(), RabbitMQPublishMode.Async.toString()));
+      propertyDefinitions.put("publishMode", new PropertyDefinition("publishMode", PropertyType.String, RabbitMQPublishMode.Sync.toString(), "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_PUBLISH_MODE_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_PUBLISH_MODE_DESC}", false, false, publishModeAllowedValues));
+      propertyDefinitions.put("publishQueueCapacity", new PropertyDefinition("publishQueueCapacity", PropertyType.Integer, 10000, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_PUBLISH_QUEUE_CAPACITY_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_PUBLISH_QUEUE_CAPACITY_DESC}", false, false));
+
+      List<LabeledValue> overflowPolicyAllowedValues = new ArrayList<LabeledValue>();
+      overflowPolicyAllowedValues.add(new LabeledValue(RabbitMQOverflowPolicy.Block.toString(), RabbitMQOverflowPolicy.Block.toString()));
+      overflowPolicyAllowedValues.add(new LabeledValue(RabbitMQOverflowPolicy.DropNewest.toString(), RabbitMQOverflowPolicy.DropNewest.toString()));
+      overflowPolicyAllowedValues.add(new LabeledValue(RabbitMQOverflowPolicy.DropOldest.toString(), RabbitMQOverflowPolicy.DropOldest.toString()));
+      overflowPolicyAllowedValues.add(new LabeledValue(RabbitMQOverflowPolicy.Spool.toString(), RabbitMQOverflowPolicy.Spool.toString()));
+      propertyDefinitions.put("overflowPolicy", new PropertyDefinition("overflowPolicy", PropertyType.String, RabbitMQOverflowPolicy.Block.toString(), "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_OVERFLOW_POLICY_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_OVERFLOW_POLICY_DESC}", false, false, overflowPolicyAllowedValues));
+      propertyDefinitions.put("publisherThreads", new PropertyDefinition("publisherThreads", PropertyType.Integer, 1, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_PUBLISHER_THREADS_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_PUBLISHER_THREADS_DESC}", false, false));
+      propertyDefinitions.put("publishBatchSize", new PropertyDefinition("publishBatchSize", PropertyType.Integer, 100, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_PUBLISH_BATCH_SIZE_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_PUBLISH_BATCH_SIZE_DESC}", false, false));
+
+      // Coalescing properties
+      propertyDefinitions.put("coalescing", new PropertyDefinition("coalescing", PropertyType.Boolean, false, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_COALESCING_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_COALESCING_DESC}", false, false));
+      propertyDefinitions.put("coalesceSeparator", new PropertyDefinition("coalesceSeparator", PropertyType.String, "\\n", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_COALESCE_SEPARATOR_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_COALESCE_SEPARATOR_DESC}", false, false));
+      propertyDefinitions.put("coalesceMaxBytes", new PropertyDefinition("coalesceMaxBytes", PropertyType.Integer, 65536, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_COALESCE_MAX_BYTES_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_COALESCE_MAX_BYTES_DESC}", false, false));
+      propertyDefinitions.put("coalesceMaxRecords", new PropertyDefinition("coalesceMaxRecords", PropertyType.Integer, 100, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_COALESCE_MAX_RECORDS_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_COALESCE_MAX_RECORDS_DESC}", false, false));
+      propertyDefinitions.put("coalesceLinger", new PropertyDefinition("coalesceLinger", PropertyType.Integer, 50, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_COALESCE_LINGER_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_COALESCE_LINGER_DESC}", false, false));
+
+      // Compression properties
+      List<LabeledValue> compressionAllowedValues = new ArrayList<LabeledValue>();
+      compressionAllowedValues.add(new LabeledValue(RabbitMQCompression.None.toString(), RabbitMQCompression.None.toString()));
+      compressionAllowedValues.add(new LabeledValue(RabbitMQCompression.Gzip.toString(), RabbitMQCompression.Gzip.toString()));
+      compressionAllowedValues.add(new LabeledValue(RabbitMQCompression.Deflate.toString(), RabbitMQCompression.Deflate.toString()));
+      compressionAllowedValues.add(new LabeledValue(RabbitMQCompression.Zstd.toString(), RabbitMQCompression.Zstd.toString()));
+      propertyDefinitions.put("compression", new PropertyDefinition("compression", PropertyType.String, RabbitMQCompression.None.toString(), "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_COMPRESSION_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_COMPRESSION_DESC}", false, false, compressionAllowedValues));
+      propertyDefinitions.put("compressionThreshold", new PropertyDefinition("compressionThreshold", PropertyType.Integer, 1024, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_COMPRESSION_THRESHOLD_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_COMPRESSION_THRESHOLD_DESC}", false, false));
+
+      // Spool properties
+      propertyDefinitions.put("spooling", new PropertyDefinition("spooling", PropertyType.Boolean, false, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_SPOOLING_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_SPOOLING_DESC}", false, false));
+      propertyDefinitions.put("spoolDirectory", new PropertyDefinition("spoolDirectory", PropertyType.String, "", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_SPOOL_DIRECTORY_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_SPOOL_DIRECTORY_DESC}", false, false));
+      propertyDefinitions.put("spoolMaxSize", new PropertyDefinition("spoolMaxSize", PropertyType.Long, 1024L, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_SPOOL_MAX_SIZE_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_SPOOL_MAX_SIZE_DESC}", false, false));
+      propertyDefinitions.put("spoolSegmentSize", new PropertyDefinition("spoolSegmentSize", PropertyType.Integer, 16, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_SPOOL_SEGMENT_SIZE_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_SPOOL_SEGMENT_SIZE_DESC}", false, false));
+      propertyDefinitions.put("spoolDrainRate", new PropertyDefinition("spoolDrainRate", PropertyType.Integer, 1000, "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_SPOOL_DRAIN_RATE_LBL}", "${com.esri.geoevent.transport.rabbitmq-transport.TRANSPORT_OUT_SPOOL_DRAIN_RATE_DESC}", false, false));
     }
     catch (PropertyException e)
     {
@@ -26,20 +26,114 @@ package com.esri.geoevent.transport.rabbitmq;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.esri.ges.framework.i18n.BundleLogger;
 import com.esri.ges.framework.i18n.BundleLoggerFactory;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
 
-public class RabbitMQProducer extends RabbitMQConnectionBroker.RabbitMQComponentBase
+public class RabbitMQProducer extends RabbitMQComponentBase
 {
-  private static final BundleLogger LOGGER = BundleLoggerFactory.getLogger(RabbitMQProducer.class);
+  private static final BundleLogger                      LOGGER              = BundleLoggerFactory.getLogger(RabbitMQProducer.class);
+  private static final ThreadLocal<ScratchArrays>        scratchArrays       = new ThreadLocal<ScratchArrays>();
+  private boolean                                        confirms            = false;
+  private int                                            maxUnconfirmed      = 1000;
+  private volatile Semaphore                             unconfirmedPermits  = new Semaphore(maxUnconfirmed);
+  private final ConcurrentSkipListMap<Long, Unconfirmed> unconfirmed         = new ConcurrentSkipListMap<Long, Unconfirmed>();
+  private volatile RabbitMQUnconfirmedListener           unconfirmedListener;
+  private final Object                                   publishLock         = new Object();
+  private final LongAdder                                confirmedCount      = new LongAdder();
+  private final LongAdder                                nackedCount         = new LongAdder();
+  private final LongAdder                                confirmLatencyNanos = new LongAdder();
 
   public RabbitMQProducer(RabbitMQConnectionInfo connectionInfo, RabbitMQExchange exchange)
   {
-    super(connectionInfo, exchange);
+    super(connectionInfo, RabbitMQConnectionRole.Publisher, exchange);
   }
 
-  public void send(final ByteBuffer buffer) throws RabbitMQTransportException
+  /**
+   * Enables publisher confirms. At most maxUnconfirmed messages are published without having been confirmed,
+   * {@link #send(ByteBuffer)} waits for the broker once that window is full.
+   */
+  public void setPublisherConfirms(boolean confirms, int maxUnconfirmed)
+  {
+    this.confirms = confirms;
+    this.maxUnconfirmed = Math.max(1, maxUnconfirmed);
+    this.unconfirmedPermits = new Semaphore(this.maxUnconfirmed);
+  }
+
+  public void setUnconfirmedListener(RabbitMQUnconfirmedListener unconfirmedListener)
+  {
+    this.unconfirmedListener = unconfirmedListener;
+  }
+
+  @Override
+  protected synchronized void init() throws RabbitMQTransportException
+  {
+    super.init();
+    if (confirms)
+    {
+      try
+      {
+        channel.addConfirmListener(new ConfirmListener()
+          {
+            @Override
+            public void handleAck(long deliveryTag, boolean multiple) throws IOException
+            {
+              confirm(deliveryTag, multiple, false);
+            }
+
+            @Override
+            public void handleNack(long deliveryTag, boolean multiple) throws IOException
+            {
+              confirm(deliveryTag, multiple, true);
+            }
+          });
+        channel.confirmSelect();
+      }
+      catch (IOException e)
+      {
+        String msg = LOGGER.translate("CHANNEL_INIT_ERROR", e.getMessage());
+        LOGGER.error(msg, e);
+        throw new RabbitMQTransportException(msg, e);
+      }
+    }
+  }
+
+  public boolean send(final ByteBuffer buffer) throws RabbitMQTransportException
+  {
+    return send(buffer, null);
+  }
+
+  /**
+   * Returns false if the message was not published because the producer is not connected.
+   */
+  public boolean send(final ByteBuffer buffer, AMQP.BasicProperties properties) throws RabbitMQTransportException
+  {
+    return send(buffer, exchange.getRoutingKey(), properties);
+  }
+
+  /**
+   * Publishes with a routing key of its own rather than the exchange's. Returns false if the message was not published
+   * because the producer is not connected.
+   */
+  public boolean send(final ByteBuffer buffer, String routingKey, AMQP.BasicProperties properties) throws RabbitMQTransportException
+  {
+    return send(buffer, routingKey, properties, null);
+  }
+
+  /**
+   * With publisher confirms, the given message is held until the broker confirms it and handed to the
+   * {@link RabbitMQUnconfirmedListener} if it never does.
+   */
+  public boolean send(final ByteBuffer buffer, String routingKey, AMQP.BasicProperties properties, RabbitMQMessage message) throws RabbitMQTransportException
   {
     if (buffer == null || !buffer.hasRemaining())
     {
@@ -47,18 +141,212 @@ public class RabbitMQProducer extends RabbitMQConnectionBroker.RabbitMQComponent
       LOGGER.error(msg);
       throw new RabbitMQTransportException(msg);
     }
-    else if (isConnected())
+    // disconnect may close and clear the channel at any moment, so it is read once and a closed one is a failed send
+    Channel channel = this.channel;
+    if (isConnected() && channel != null)
     {
       try
       {
-        channel.basicPublish(exchange.getName(), exchange.getRoutingKey(), null, buffer.array());
+        byte[] body = toBody(buffer);
+        if (confirms)
+          publishConfirmed(channel, body, routingKey, properties, message);
+        else
+          channel.basicPublish(exchange.getName(), routingKey, properties, body);
+        return true;
       }
-      catch (IOException e)
+      catch (IOException | RuntimeException e)
       {
         String msg = LOGGER.translate("TRANSPORT_OUT_FAILED_TO_SEND_MESSAGE_ERROR");
         LOGGER.error(msg);
         throw new RabbitMQTransportException(msg, e);
       }
     }
+    return false;
+  }
+
+  /**
+   * Returns exactly the bytes between the buffer's position and limit. The client only accepts a whole array as the
+   * message body and has written it to the socket by the time basicPublish returns, so a heap buffer that spans its
+   * whole array is published as is, anything else is copied into a per-thread scratch array of the same length.
+   */
+  private static byte[] toBody(ByteBuffer buffer)
+  {
+    int length = buffer.remaining();
+    if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 && buffer.array().length == length)
+      return buffer.array();
+    ScratchArrays arrays = scratchArrays.get();
+    if (arrays == null)
+    {
+      arrays = new ScratchArrays();
+      scratchArrays.set(arrays);
+    }
+    byte[] body = arrays.get(length);
+    int position = buffer.position();
+    buffer.get(body);
+    buffer.position(position);
+    return body;
+  }
+
+  private void publishConfirmed(Channel channel, byte[] body, String routingKey, AMQP.BasicProperties properties, RabbitMQMessage message) throws IOException, RabbitMQTransportException
+  {
+    Semaphore permits = unconfirmedPermits;
+    try
+    {
+      while (!permits.tryAcquire(100, TimeUnit.MILLISECONDS))
+      {
+        if (!isConnected())
+          throw new RabbitMQTransportException(LOGGER.translate("TRANSPORT_OUT_FAILED_TO_SEND_MESSAGE_ERROR"));
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new RabbitMQTransportException(LOGGER.translate("TRANSPORT_OUT_FAILED_TO_SEND_MESSAGE_ERROR"), e);
+    }
+    long sequenceNumber = -1;
+    try
+    {
+      // sequence numbers have to be taken in publish order
+      synchronized (publishLock)
+      {
+        sequenceNumber = channel.getNextPublishSeqNo();
+        unconfirmed.put(sequenceNumber, new Unconfirmed(System.nanoTime(), message));
+        channel.basicPublish(exchange.getName(), routingKey, properties, body);
+      }
+    }
+    catch (IOException | RuntimeException e)
+    {
+      if (sequenceNumber >= 0 && unconfirmed.remove(sequenceNumber) != null)
+        permits.release();
+      throw e;
+    }
+  }
+
+  // unconfirmed maps publish sequence numbers to the System.nanoTime() of their publish and the message it retains
+  private void confirm(long deliveryTag, boolean multiple, boolean nacked)
+  {
+    long now = System.nanoTime();
+    int count = 0;
+    if (multiple)
+    {
+      ConcurrentNavigableMap<Long, Unconfirmed> confirmed = unconfirmed.headMap(deliveryTag, true);
+      for (Map.Entry<Long, Unconfirmed> entry : confirmed.entrySet())
+      {
+        if (confirmed.remove(entry.getKey()) != null)
+        {
+          confirmLatencyNanos.add(now - entry.getValue().published);
+          if (nacked)
+            unconfirmed(entry.getValue());
+          count++;
+        }
+      }
+    }
+    else
+    {
+      Unconfirmed published = unconfirmed.remove(deliveryTag);
+      if (published != null)
+      {
+        confirmLatencyNanos.add(now - published.published);
+        if (nacked)
+          unconfirmed(published);
+        count++;
+      }
+    }
+    if (count > 0)
+    {
+      confirmedCount.add(count);
+      if (nacked)
+      {
+        nackedCount.add(count);
+        LOGGER.debug("TRANSPORT_OUT_MESSAGES_NACKED", count);
+      }
+      unconfirmedPermits.release(count);
+    }
+  }
+
+  private void unconfirmed(Unconfirmed published)
+  {
+    RabbitMQUnconfirmedListener listener = unconfirmedListener;
+    if (published.message != null && listener != null)
+      listener.onUnconfirmed(published.message);
+  }
+
+  public long getConfirmedCount()
+  {
+    return confirmedCount.sum();
+  }
+
+  public long getNackedCount()
+  {
+    return nackedCount.sum();
+  }
+
+  public int getUnconfirmedCount()
+  {
+    return unconfirmed.size();
+  }
+
+  public double getAverageConfirmLatency()
+  {
+    long count = confirmedCount.sum();
+    return (count > 0) ? confirmLatencyNanos.sum() / 1000000.0 / count : 0.0;
+  }
+
+  @Override
+  protected synchronized void disconnect(String reason)
+  {
+    super.disconnect(reason);
+    // confirms for these will never arrive, count them as failed and free their slots
+    int lost = 0;
+    for (Long sequenceNumber : unconfirmed.keySet())
+    {
+      Unconfirmed published = unconfirmed.remove(sequenceNumber);
+      if (published != null)
+      {
+        unconfirmed(published);
+        lost++;
+      }
+    }
+    if (lost > 0)
+    {
+      nackedCount.add(lost);
+      LOGGER.debug("TRANSPORT_OUT_MESSAGES_NACKED", lost);
+    }
+    unconfirmedPermits = new Semaphore(maxUnconfirmed);
+  }
+
+  private static class Unconfirmed
+  {
+    private final long            published;
+    private final RabbitMQMessage message;
+
+    private Unconfirmed(long published, RabbitMQMessage message)
+    {
+      this.published = published;
+      this.message = message;
+    }
+  }
+
+  /**
+   * Direct mapped cache of exact length arrays, so that messages of recurring sizes reuse their scratch array.
+   */
+  private static class ScratchArrays
+  {
+    private static final int MAX_CACHED_LENGTH = 64 * 1024;
+    private final byte[][]   arrays            = new byte[32][];
+
+    public byte[] get(int length)
+    {
+      if (length > MAX_CACHED_LENGTH)
+        return new byte[length];
+      int slot = length & (arrays.length - 1);
+      byte[] array = arrays[slot];
+      if (array == null || array.length != length)
+      {
+        array = new byte[length];
+        arrays[slot] = array;
+      }
+      return array;
+    }
   }
 }
@@ -0,0 +1,154 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+
+package com.esri.geoevent.transport.rabbitmq;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded multi-producer queue between the outbound transport and its publisher threads. Messages are held in a
+ * lock-free ConcurrentLinkedQueue, free slots and queued items are counted with semaphores, so neither side takes a
+ * lock while there is room and work. A full queue only blocks while it is open, that is while publishers are taking
+ * from it.
+ */
+public class RabbitMQPublishQueue
+{
+  private static final long                            CLOSED_CHECK_INTERVAL = 100;
+  private final ConcurrentLinkedQueue<RabbitMQMessage> queue                 = new ConcurrentLinkedQueue<RabbitMQMessage>();
+  private final Semaphore                              items                 = new Semaphore(0);
+  private final Semaphore                              slots;
+  private final int                                    capacity;
+  private final RabbitMQOverflowPolicy                 overflowPolicy;
+  private final LongAdder                              dropped               = new LongAdder();
+  private volatile boolean                             open;
+
+  public RabbitMQPublishQueue(int capacity, RabbitMQOverflowPolicy overflowPolicy)
+  {
+    this.capacity = Math.max(1, capacity);
+    this.slots = new Semaphore(this.capacity);
+    this.overflowPolicy = overflowPolicy;
+  }
+
+  /**
+   * Queues a message, applying the overflow policy when the queue is full.
+   *
+   * @return false if the message was dropped, or is to be spooled, or the queue was closed while waiting for room
+   */
+  public boolean offer(RabbitMQMessage message) throws InterruptedException
+  {
+    switch (overflowPolicy)
+    {
+      case DropNewest:
+        if (!slots.tryAcquire())
+        {
+          dropped.increment();
+          return false;
+        }
+        break;
+      case Spool:
+        if (!slots.tryAcquire())
+          return false;
+        break;
+      case DropOldest:
+        while (!slots.tryAcquire())
+        {
+          if (items.tryAcquire())
+          {
+            if (queue.poll() != null)
+              dropped.increment();
+            slots.release();
+          }
+          else
+          {
+            // everything queued is being taken by the publishers right now, their slots are about to free up
+            Thread.yield();
+          }
+        }
+        break;
+      default:
+        // nobody frees a slot while the queue is closed
+        while (!slots.tryAcquire(CLOSED_CHECK_INTERVAL, TimeUnit.MILLISECONDS))
+          if (!open)
+            return false;
+        break;
+    }
+    queue.offer(message);
+    items.release();
+    return true;
+  }
+
+  /**
+   * Waits up to the timeout for a message, then takes whatever else is queued, up to maxMessages in total.
+   *
+   * @return the number of messages added to the batch
+   */
+  public int drainTo(List<RabbitMQMessage> batch, int maxMessages, long timeout, TimeUnit unit) throws InterruptedException
+  {
+    if (!items.tryAcquire(timeout, unit))
+      return 0;
+    int count = 1;
+    while (count < maxMessages && items.tryAcquire())
+      count++;
+    for (int i = 0; i < count; i++)
+      batch.add(queue.poll());
+    slots.release(count);
+    return count;
+  }
+
+  /**
+   * Called once publishers are taking from the queue.
+   */
+  public void open()
+  {
+    open = true;
+  }
+
+  /**
+   * Called when the publishers stop or the queue is discarded, releases the callers waiting for room.
+   */
+  public void close()
+  {
+    open = false;
+  }
+
+  public int size()
+  {
+    return items.availablePermits();
+  }
+
+  public int getCapacity()
+  {
+    return capacity;
+  }
+
+  public long getDroppedCount()
+  {
+    return dropped.sum();
+  }
+}
@@ -24,6 +24,9 @@
 
 package com.esri.geoevent.transport.rabbitmq;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import com.esri.ges.core.validation.Validatable;
 import com.esri.ges.core.validation.ValidationException;
 import com.esri.ges.framework.i18n.BundleLogger;
@@ -38,13 +41,35 @@ public class RabbitMQQueue implements Validatable
   private RabbitMQDurability        durability;
   private boolean                   exclusive;
   private boolean                   autoDelete;
+  private RabbitMQQueueType         type;
+  private int                       maxLength;
+  private long                      maxLengthBytes;
+  private RabbitMQQueueOverflow     overflow;
+  private int                       messageTtl;
+  private boolean                   lazy;
 
   public RabbitMQQueue(String name, String durability, String exclusive, String autoDelete)
+  {
+    this(name, durability, exclusive, autoDelete, null, null, null, null, null, null);
+  }
+
+  /**
+   * @param maxLength the maximum number of messages in the queue, 0 for no limit
+   * @param maxLengthBytes the maximum total size of the message bodies in the queue, 0 for no limit
+   * @param messageTtl the time in milliseconds after which a message is dropped from the queue, 0 to keep it
+   */
+  public RabbitMQQueue(String name, String durability, String exclusive, String autoDelete, String type, String maxLength, String maxLengthBytes, String overflow, String messageTtl, String lazy)
   {
     this.name = name;
     this.durability = Validator.valueOfIgnoreCase(RabbitMQDurability.class, durability, RabbitMQDurability.Transient);
     this.exclusive = Converter.convertToBoolean(exclusive, false);
     this.autoDelete = Converter.convertToBoolean(autoDelete, true);
+    this.type = Validator.valueOfIgnoreCase(RabbitMQQueueType.class, type, RabbitMQQueueType.Classic);
+    this.maxLength = Converter.convertToInteger(maxLength, 0);
+    this.maxLengthBytes = Converter.convertToLong(maxLengthBytes, 0L);
+    this.overflow = Validator.valueOfIgnoreCase(RabbitMQQueueOverflow.class, overflow, RabbitMQQueueOverflow.DropHead);
+    this.messageTtl = Converter.convertToInteger(messageTtl, 0);
+    this.lazy = Converter.convertToBoolean(lazy, false);
   }
 
   public String getName()
@@ -67,10 +92,49 @@ public class RabbitMQQueue implements Validatable
     return autoDelete;
   }
 
+  public RabbitMQQueueType getType()
+  {
+    return type;
+  }
+
+  /**
+   * The arguments the queue is declared with, null if it needs none.
+   */
+  public Map<String, Object> getArguments()
+  {
+    Map<String, Object> arguments = new HashMap<String, Object>();
+    if (!RabbitMQQueueType.Classic.equals(type))
+      arguments.put("x-queue-type", type.getTypeName());
+    if (maxLength > 0)
+      arguments.put("x-max-length", maxLength);
+    if (maxLengthBytes > 0)
+      arguments.put("x-max-length-bytes", maxLengthBytes);
+    if ((maxLength > 0 || maxLengthBytes > 0) && !RabbitMQQueueType.Stream.equals(type))
+      arguments.put("x-overflow", overflow.getBehaviour());
+    if (messageTtl > 0)
+      arguments.put("x-message-ttl", messageTtl);
+    if (lazy)
+      arguments.put("x-queue-mode", "lazy");
+    return arguments.isEmpty() ? null : arguments;
+  }
+
   @Override
   public void validate() throws ValidationException
   {
     if (name == null || name.isEmpty())
       throw new ValidationException(LOGGER.translate("QUEUE_NAME_VALIDATE_ERROR"));
+    if (maxLength < 0 || maxLengthBytes < 0 || messageTtl < 0)
+      throw new ValidationException(LOGGER.translate("QUEUE_LIMITS_VALIDATE_ERROR"));
+    if (RabbitMQQueueType.Classic.equals(type))
+      return;
+    // replicated queues are shared and outlive their consumers
+    if (!isDurable() || exclusive || autoDelete)
+      throw new ValidationException(LOGGER.translate("QUEUE_TYPE_VALIDATE_ERROR", type));
+    if (lazy)
+      throw new ValidationException(LOGGER.translate("QUEUE_MODE_VALIDATE_ERROR"));
+    if (RabbitMQQueueType.Quorum.equals(type) && RabbitMQQueueOverflow.RejectPublishDlx.equals(overflow))
+      throw new ValidationException(LOGGER.translate("QUEUE_OVERFLOW_VALIDATE_ERROR"));
+    if (RabbitMQQueueType.Stream.equals(type) && (maxLength > 0 || messageTtl > 0))
+      throw new ValidationException(LOGGER.translate("QUEUE_STREAM_VALIDATE_ERROR"));
   }
 }
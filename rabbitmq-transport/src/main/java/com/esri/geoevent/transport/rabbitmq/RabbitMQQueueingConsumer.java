@@ -25,11 +25,18 @@
 package com.esri.geoevent.transport.rabbitmq;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.TimeUnit;
 
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
 import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AlreadyClosedException;
 import com.rabbitmq.client.BasicProperties;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Consumer;
@@ -37,15 +44,67 @@ import com.rabbitmq.client.ConsumerCancelledException;
 import com.rabbitmq.client.Envelope;
 import com.rabbitmq.client.ShutdownSignalException;
 
+/**
+ * Consumes with manual acknowledgements so that the channel's prefetch window bounds the number of deliveries held
+ * in memory. In {@link RabbitMQAcknowledgementMode#Auto} mode deliveries are acknowledged once they are handed off,
+ * in {@link RabbitMQAcknowledgementMode#ManualBatched} mode once {@link #complete(Delivery)} is called for them.
+ * Acknowledgements are sent with multiple=true every ackBatchSize deliveries, and by {@link #flush()} for the rest,
+ * except while conflating, where buffered deliveries are no longer in delivery tag order and each is acknowledged on
+ * its own.
+ */
 public class RabbitMQQueueingConsumer implements Consumer
 {
-  private final Channel                 channel;
-  private volatile String               consumerTag;
-  private final BlockingQueue<Delivery> queue = new LinkedBlockingQueue<Delivery>();
+  private static final BundleLogger         LOGGER       = BundleLoggerFactory.getLogger(RabbitMQQueueingConsumer.class);
+  private final Channel                     channel;
+  private final int                         index;
+  private final RabbitMQDeliveryListener    listener;
+  private final RabbitMQAcknowledgementMode ackMode;
+  private final Set<String>                 consumerTags = new CopyOnWriteArraySet<String>();
+  private final BlockingQueue<Delivery>     queue;
+  private final int                         capacity;
+  private final int                         ackBatchSize;
+  private final boolean                     conflating;
+  private volatile int                      generation;
+  private volatile long                     deliveredTag;
+  private long                              acknowledgedTag;
+  private long                              pendingTag;
+  private int                               pendingCount;
+  private RabbitMQLoadShedder               shedder;
 
-  public RabbitMQQueueingConsumer(Channel channel)
+  /**
+   * When a listener is given, deliveries are handed to it directly on the client's dispatch thread instead of being
+   * queued for {@link #nextDelivery(long)}.
+   */
+  public RabbitMQQueueingConsumer(Channel channel, int index, int capacity, RabbitMQAcknowledgementMode ackMode, int ackBatchSize, RabbitMQDeliveryListener listener)
+  {
+    this(channel, index, capacity, ackMode, ackBatchSize, listener, null);
+  }
+
+  /**
+   * When a conflation is given, and no listener, a buffered delivery is replaced by a newer one of the same key.
+   */
+  public RabbitMQQueueingConsumer(Channel channel, int index, int capacity, RabbitMQAcknowledgementMode ackMode, int ackBatchSize, RabbitMQDeliveryListener listener, RabbitMQConflation conflation)
   {
     this.channel = channel;
+    this.index = index;
+    this.listener = listener;
+    this.ackMode = ackMode;
+    this.capacity = Math.max(1, capacity);
+    this.conflating = (listener == null && conflation != null);
+    if (listener != null)
+      this.queue = null;
+    else if (conflation != null)
+      this.queue = new RabbitMQConflatingQueue(this.capacity, conflation)
+        {
+          @Override
+          protected void replaced(Delivery delivery)
+          {
+            acknowledgeSingle(delivery);
+          }
+        };
+    else
+      this.queue = new ArrayBlockingQueue<Delivery>(this.capacity);
+    this.ackBatchSize = Math.max(1, ackBatchSize);
   }
 
   public Channel getChannel()
@@ -53,49 +112,253 @@ public class RabbitMQQueueingConsumer implements Consumer
     return channel;
   }
 
-  public String getConsumerTag()
+  public int getIndex()
+  {
+    return index;
+  }
+
+  /**
+   * The tags of the subscriptions delivering to this consumer, which consumes several queues of a sharded transport.
+   */
+  public Set<String> getConsumerTags()
+  {
+    return consumerTags;
+  }
+
+  public int getCapacity()
+  {
+    return capacity;
+  }
+
+  public int getBacklog()
+  {
+    return (queue != null) ? queue.size() : 0;
+  }
+
+  /**
+   * Sheds deliveries while the buffer is overloaded. Only takes effect when deliveries are buffered, that is without a
+   * listener.
+   */
+  public void setLoadShedder(RabbitMQLoadShedder shedder)
   {
-    return consumerTag;
+    this.shedder = (queue != null) ? shedder : null;
+  }
+
+  public boolean isShedding()
+  {
+    RabbitMQLoadShedder shedder = this.shedder;
+    return shedder != null && shedder.isActive();
   }
 
   @Override
   public void handleShutdownSignal(String consumerTag, ShutdownSignalException shutdownSignal)
   {
-    // ignore
+    // delivery tags die with the channel, the broker requeues whatever was not acknowledged
+    consumerTags.clear();
+    reset();
   }
 
   @Override
   public void handleCancel(String consumerTag) throws IOException
   {
-    // ignore
+    consumerTags.remove(consumerTag);
   }
 
   @Override
   public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException
   {
-    queue.add(new Delivery(envelope, properties, body));
+    deliveredTag = envelope.getDeliveryTag();
+    Delivery delivery = new Delivery(envelope, properties, body, generation);
+    if (listener != null)
+    {
+      if (RabbitMQAcknowledgementMode.Auto.equals(ackMode))
+        acknowledge(delivery, false);
+      listener.onDelivery(this, delivery);
+    }
+    else if (shedder != null && shedder.update(queue.size(), publishTimeOf(queue.peek())) && shedder.dropsNewest())
+      shed(delivery);
+    else if (!queue.offer(delivery))
+    {
+      // the prefetch window never exceeds the capacity, so this only happens if the broker ignores it
+      try
+      {
+        queue.put(delivery);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+    }
   }
 
   public Delivery nextDelivery() throws InterruptedException, ShutdownSignalException, ConsumerCancelledException
   {
-    return queue.take();
+    Delivery delivery = queue.take();
+    while (shedsOldest(delivery))
+    {
+      shed(delivery);
+      delivery = queue.take();
+    }
+    return handOff(delivery);
   }
 
   public Delivery nextDelivery(long timeout) throws InterruptedException, ShutdownSignalException, ConsumerCancelledException
   {
-    return queue.poll(timeout, TimeUnit.MILLISECONDS);
+    return nextDelivery(timeout, TimeUnit.MILLISECONDS);
+  }
+
+  public Delivery nextDelivery(long timeout, TimeUnit unit) throws InterruptedException, ShutdownSignalException, ConsumerCancelledException
+  {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    Delivery delivery = queue.poll(timeout, unit);
+    while (delivery != null && shedsOldest(delivery))
+    {
+      shed(delivery);
+      delivery = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+    return handOff(delivery);
+  }
+
+  private boolean shedsOldest(Delivery delivery)
+  {
+    return shedder != null && shedder.dropsOldest() && shedder.update(queue.size() + 1, delivery.getPublishTime());
+  }
+
+  private Delivery handOff(Delivery delivery)
+  {
+    // acknowledge in batches while the buffer is busy, right away once it has drained
+    if (delivery != null && RabbitMQAcknowledgementMode.Auto.equals(ackMode))
+      acknowledge(delivery, queue.isEmpty());
+    return delivery;
+  }
+
+  /**
+   * Called once the adapter has finished with the delivery.
+   */
+  public void complete(Delivery delivery)
+  {
+    if (RabbitMQAcknowledgementMode.ManualBatched.equals(ackMode))
+      acknowledge(delivery, false);
+  }
+
+  /**
+   * Called once the adapter has finished with a batch of deliveries, in the order they were handed off.
+   */
+  public void complete(List<Delivery> deliveries)
+  {
+    if (deliveries.isEmpty())
+      return;
+    if (!conflating)
+      complete(deliveries.get(deliveries.size() - 1));
+    else
+      for (Delivery delivery : deliveries)
+        complete(delivery);
+  }
+
+  private synchronized void acknowledge(Delivery delivery, boolean immediately)
+  {
+    if (conflating)
+    {
+      acknowledgeSingle(delivery);
+      return;
+    }
+    long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+    if (delivery.generation != generation || deliveryTag <= acknowledgedTag)
+      return;
+    pendingTag = deliveryTag;
+    if (++pendingCount >= ackBatchSize || immediately)
+      flush();
+  }
+
+  private void shed(Delivery delivery)
+  {
+    shedder.shed();
+    acknowledgeSingle(delivery);
+  }
+
+  /**
+   * Acknowledges a delivery on its own, a cumulative acknowledgement would also cover the older deliveries that have
+   * not been processed yet.
+   */
+  private synchronized void acknowledgeSingle(Delivery delivery)
+  {
+    if (delivery.generation != generation)
+      return;
+    try
+    {
+      channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
+    }
+    catch (IOException | AlreadyClosedException e)
+    {
+      LOGGER.debug("CONSUMER_ACK_ERROR", e.getMessage());
+    }
+  }
+
+  private static long publishTimeOf(Delivery delivery)
+  {
+    return (delivery != null) ? delivery.getPublishTime() : RabbitMQLoadShedder.NO_DELIVERY;
+  }
+
+  public synchronized void flush()
+  {
+    if (pendingCount > 0)
+    {
+      try
+      {
+        channel.basicAck(pendingTag, true);
+      }
+      catch (IOException | AlreadyClosedException e)
+      {
+        LOGGER.debug("CONSUMER_ACK_ERROR", e.getMessage());
+      }
+      acknowledgedTag = pendingTag;
+      pendingCount = 0;
+    }
+  }
+
+  /**
+   * Acknowledges what has been processed and returns everything else to the queue. Called when disconnecting, after
+   * the consumer has been cancelled.
+   */
+  public synchronized void release()
+  {
+    flush();
+    if (deliveredTag > acknowledgedTag && channel.isOpen())
+    {
+      try
+      {
+        // tag 0 covers everything outstanding, the last delivery may have been shed and acknowledged on its own
+        channel.basicNack(0, true, true);
+      }
+      catch (IOException | AlreadyClosedException e)
+      {
+        LOGGER.debug("CONSUMER_NACK_ERROR", e.getMessage());
+      }
+    }
+    reset();
+  }
+
+  private synchronized void reset()
+  {
+    generation++;
+    if (queue != null)
+      queue.clear();
+    deliveredTag = 0;
+    acknowledgedTag = 0;
+    pendingTag = 0;
+    pendingCount = 0;
   }
 
   @Override
   public void handleConsumeOk(String consumerTag)
   {
-    this.consumerTag = consumerTag;
+    consumerTags.add(consumerTag);
   }
 
   @Override
   public void handleCancelOk(String consumerTag)
   {
-    // ignore
+    consumerTags.remove(consumerTag);
   }
 
   @Override
@@ -109,12 +372,46 @@ public class RabbitMQQueueingConsumer implements Consumer
     private final Envelope             envelope;
     private final AMQP.BasicProperties properties;
     private final byte[]               body;
+    private final int                  generation;
+    private final long                 arrivalTime;
+    private final long                 publishTime;
 
     public Delivery(Envelope envelope, AMQP.BasicProperties properties, byte[] body)
+    {
+      this(envelope, properties, body, 0);
+    }
+
+    Delivery(Envelope envelope, AMQP.BasicProperties properties, byte[] body, int generation)
     {
       this.envelope = envelope;
       this.properties = properties;
       this.body = body;
+      this.generation = generation;
+      this.arrivalTime = System.nanoTime();
+      this.publishTime = publishTimeOf(properties, arrivalTime);
+    }
+
+    /**
+     * Moves the publish time the message carries onto the {@link System#nanoTime()} scale of the arrival time. The
+     * {@link RabbitMQOutboundTransport#PUBLISHED_HEADER} header is preferred, other publishers may set the AMQP
+     * timestamp property instead. Messages with neither, or with a publish time after their arrival because the clocks
+     * of the publisher and this host disagree, fall back to the arrival time.
+     */
+    private static long publishTimeOf(AMQP.BasicProperties properties, long arrivalTime)
+    {
+      long published = 0;
+      if (properties != null)
+      {
+        Map<String, Object> headers = properties.getHeaders();
+        Object header = (headers != null) ? headers.get(RabbitMQOutboundTransport.PUBLISHED_HEADER) : null;
+        if (header instanceof Number)
+          published = ((Number) header).longValue();
+        else if (properties.getTimestamp() != null)
+          // the timestamp property only has second precision, assume the end of that second rather than overstate the age
+          published = properties.getTimestamp().getTime() + 999;
+      }
+      long age = (published > 0) ? System.currentTimeMillis() - published : 0;
+      return (age > 0) ? arrivalTime - TimeUnit.MILLISECONDS.toNanos(age) : arrivalTime;
     }
 
     public Envelope getEnvelope()
@@ -131,5 +428,21 @@ public class RabbitMQQueueingConsumer implements Consumer
     {
       return body;
     }
+
+    /**
+     * Returns the {@link System#nanoTime()} at which the delivery arrived.
+     */
+    public long getArrivalTime()
+    {
+      return arrivalTime;
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} at which the message was published, or its arrival time if that is unknown.
+     */
+    public long getPublishTime()
+    {
+      return publishTime;
+    }
   }
 }
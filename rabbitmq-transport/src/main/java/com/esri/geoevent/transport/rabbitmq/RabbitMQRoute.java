@@ -0,0 +1,77 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+
+package com.esri.geoevent.transport.rabbitmq;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Where a message is published: the routing key and, for headers exchanges, the headers the exchange matches on.
+ */
+public final class RabbitMQRoute
+{
+  private final String              routingKey;
+  private final Map<String, Object> headers;
+
+  public RabbitMQRoute(String routingKey, Map<String, Object> headers)
+  {
+    this.routingKey = (routingKey != null) ? routingKey : "";
+    this.headers = headers;
+  }
+
+  public String getRoutingKey()
+  {
+    return routingKey;
+  }
+
+  public Map<String, Object> getHeaders()
+  {
+    return headers;
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return 31 * routingKey.hashCode() + Objects.hashCode(headers);
+  }
+
+  @Override
+  public boolean equals(Object obj)
+  {
+    if (this == obj)
+      return true;
+    if (!(obj instanceof RabbitMQRoute))
+      return false;
+    RabbitMQRoute other = (RabbitMQRoute) obj;
+    return routingKey.equals(other.routingKey) && Objects.equals(headers, other.headers);
+  }
+
+  @Override
+  public String toString()
+  {
+    return (headers != null) ? routingKey + " " + headers : routingKey;
+  }
+}
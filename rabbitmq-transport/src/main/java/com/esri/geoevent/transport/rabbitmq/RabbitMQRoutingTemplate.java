@@ -0,0 +1,124 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+
+package com.esri.geoevent.transport.rabbitmq;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the route of an outbound record from a routing key template such as <code>{TRACK_ID}.{STATUS}</code>. A
+ * placeholder holding a number picks a field of a delimited text record by index, any other name picks a member of a
+ * JSON record. For topic exchanges dots in field values are replaced so that a value never spans several words, for
+ * headers exchanges every placeholder also becomes a message header named after it. A template without placeholders
+ * always yields the same route.
+ */
+public class RabbitMQRoutingTemplate implements RabbitMQRouter
+{
+  private static final int               MAX_ROUTING_KEY_BYTES = 255;
+  private final String[]                 literals;
+  private final RabbitMQFieldExtractor[] fields;
+  private final boolean                  topic;
+  private final boolean                  headers;
+  private final RabbitMQRoute            fixed;
+
+  public RabbitMQRoutingTemplate(String template, RabbitMQExchangeType type, byte delimiter)
+  {
+    List<String> literals = new ArrayList<String>();
+    List<String> names = new ArrayList<String>();
+    String text = (template != null) ? template : "";
+    int start = 0;
+    int open;
+    while ((open = text.indexOf('{', start)) >= 0)
+    {
+      int close = text.indexOf('}', open + 1);
+      if (close < 0)
+        break;
+      literals.add(text.substring(start, open));
+      names.add(text.substring(open + 1, close).trim());
+      start = close + 1;
+    }
+    literals.add(text.substring(start));
+    this.literals = literals.toArray(new String[literals.size()]);
+    this.fields = new RabbitMQFieldExtractor[names.size()];
+    for (int i = 0; i < fields.length; i++)
+      fields[i] = new RabbitMQFieldExtractor(names.get(i), delimiter);
+    this.topic = RabbitMQExchangeType.topic.equals(type);
+    this.headers = RabbitMQExchangeType.headers.equals(type);
+    this.fixed = (fields.length == 0) ? new RabbitMQRoute(truncate(this.literals[0]), null) : null;
+  }
+
+  public boolean isStatic()
+  {
+    return fixed != null;
+  }
+
+  @Override
+  public RabbitMQRoute route(ByteBuffer record)
+  {
+    if (fixed != null)
+      return fixed;
+    StringBuilder routingKey = new StringBuilder(literals[0]);
+    Map<String, Object> values = headers ? new LinkedHashMap<String, Object>() : null;
+    for (int i = 0; i < fields.length; i++)
+    {
+      String value = (record != null) ? fields[i].extract(record) : null;
+      if (value == null)
+        value = "";
+      if (topic)
+        value = value.replace('.', '_');
+      if (values != null)
+        values.put(fields[i].getName(), value);
+      routingKey.append(value).append(literals[i + 1]);
+    }
+    return new RabbitMQRoute(truncate(routingKey.toString()), values);
+  }
+
+  /**
+   * Cuts the routing key down to the 255 bytes an AMQP short string holds once encoded as UTF-8, at a code point
+   * boundary so that no character is split.
+   */
+  static String truncate(String routingKey)
+  {
+    // a char never takes more than 3 bytes, a surrogate pair takes 4 for its 2 chars
+    if (routingKey.length() * 3 <= MAX_ROUTING_KEY_BYTES)
+      return routingKey;
+    int bytes = 0;
+    int i = 0;
+    while (i < routingKey.length())
+    {
+      int codePoint = routingKey.codePointAt(i);
+      bytes += (codePoint < 0x80) ? 1 : (codePoint < 0x800) ? 2 : (codePoint < 0x10000) ? 3 : 4;
+      if (bytes > MAX_ROUTING_KEY_BYTES)
+        return routingKey.substring(0, i);
+      i += Character.charCount(codePoint);
+    }
+    return routingKey;
+  }
+
+}
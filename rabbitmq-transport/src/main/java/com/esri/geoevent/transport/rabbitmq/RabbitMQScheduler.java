@@ -0,0 +1,85 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+
+package com.esri.geoevent.transport.rabbitmq;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Daemon scheduler shared by all RabbitMQ transports for their periodic housekeeping, plus the executor that delivers
+ * transport events to asynchronous listeners.
+ */
+public final class RabbitMQScheduler
+{
+  private static ScheduledThreadPoolExecutor executor;
+  private static ThreadPoolExecutor          eventExecutor;
+
+  private RabbitMQScheduler()
+  {
+  }
+
+  public static synchronized ScheduledExecutorService getExecutor()
+  {
+    if (executor == null)
+    {
+      executor = new ScheduledThreadPoolExecutor(2, newThreadFactory("RabbitMQ-Scheduler-"));
+      executor.setRemoveOnCancelPolicy(true);
+    }
+    return executor;
+  }
+
+  public static synchronized ExecutorService getEventExecutor()
+  {
+    if (eventExecutor == null)
+    {
+      // event handlers may block on reconnects, so they get their own threads rather than the housekeeping ones
+      eventExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), newThreadFactory("RabbitMQ-Events-"));
+    }
+    return eventExecutor;
+  }
+
+  private static ThreadFactory newThreadFactory(final String prefix)
+  {
+    return new ThreadFactory()
+      {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+          Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      };
+  }
+}
@@ -0,0 +1,265 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+
+package com.esri.geoevent.transport.rabbitmq;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+
+/**
+ * Splits the shard queues of a sharded inbound transport among the cluster nodes consuming them. Every node
+ * announces itself with a heartbeat on a fanout exchange named after the queue and assigns each shard to the live
+ * member with the highest rendezvous hash of member and shard. All nodes thus agree on the owners without talking to
+ * each other, and a node joining or leaving only moves the shards it gains or loses.
+ */
+public abstract class RabbitMQShardCoordinator
+{
+  private static final BundleLogger   LOGGER            = BundleLoggerFactory.getLogger(RabbitMQShardCoordinator.class);
+  private static final String         JOIN              = "join";
+  private static final String         LEAVE             = "leave";
+  private static final int            MISSED_HEARTBEATS = 3;
+  private final String                nodeId            = UUID.randomUUID().toString();
+  private final String                queueName;
+  private final int                   shardCount;
+  private final long                  heartbeatInterval;
+  private final Map<String, Long>     members           = new ConcurrentHashMap<String, Long>();
+  private volatile Set<Integer>       owned             = Collections.emptySet();
+  private volatile boolean            settled;
+  private volatile boolean            stopped;
+  private volatile Channel            channel;
+  private volatile ScheduledFuture<?> heartbeatTask;
+  private volatile ScheduledFuture<?> settleTask;
+  private final Runnable              rebalanceTask;
+
+  public RabbitMQShardCoordinator(String queueName, int shardCount, long heartbeatInterval)
+  {
+    this.queueName = queueName;
+    this.shardCount = shardCount;
+    this.heartbeatInterval = Math.max(100, heartbeatInterval);
+    this.rebalanceTask = new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          rebalance();
+        }
+      };
+  }
+
+  public static String shardQueueName(String queueName, int shard)
+  {
+    return queueName + "." + shard;
+  }
+
+  /**
+   * Called whenever the set of shards owned by this node changes.
+   */
+  protected abstract void assign(Set<Integer> shards);
+
+  public void start(Channel channel) throws IOException
+  {
+    this.channel = channel;
+    members.put(nodeId, System.nanoTime());
+    String exchangeName = queueName + ".members";
+    channel.exchangeDeclare(exchangeName, "fanout", false, true, null);
+    String heartbeatQueue = channel.queueDeclare().getQueue();
+    channel.queueBind(heartbeatQueue, exchangeName, "");
+    channel.basicConsume(heartbeatQueue, true, new DefaultConsumer(channel)
+      {
+        @Override
+        public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body)
+        {
+          onHeartbeat(properties.getType(), new String(body, StandardCharsets.UTF_8));
+        }
+      });
+    heartbeatTask = RabbitMQScheduler.getExecutor().scheduleWithFixedDelay(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          heartbeat(JOIN);
+          expire();
+        }
+      }, 0, this.heartbeatInterval, TimeUnit.MILLISECONDS);
+    // the first heartbeat goes out right away, shards are only claimed once every other member has sent its next one
+    settleTask = RabbitMQScheduler.getExecutor().schedule(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          settled = true;
+          RabbitMQScheduler.getEventExecutor().execute(rebalanceTask);
+        }
+      }, this.heartbeatInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops taking part in the cluster and tells the other members to take over right away. Does not wait for a
+   * rebalance in progress, which is what lets the consumer call this while holding its own lock.
+   */
+  public void stop()
+  {
+    stopped = true;
+    ScheduledFuture<?> settleTask = this.settleTask;
+    if (settleTask != null)
+    {
+      settleTask.cancel(false);
+      this.settleTask = null;
+    }
+    ScheduledFuture<?> heartbeatTask = this.heartbeatTask;
+    if (heartbeatTask != null)
+    {
+      heartbeatTask.cancel(false);
+      this.heartbeatTask = null;
+      heartbeat(LEAVE);
+    }
+    owned = Collections.emptySet();
+  }
+
+  public String getNodeId()
+  {
+    return nodeId;
+  }
+
+  public int getMembers()
+  {
+    return members.size();
+  }
+
+  public int getOwnedShards()
+  {
+    return owned.size();
+  }
+
+  private void heartbeat(String type)
+  {
+    Channel channel = this.channel;
+    try
+    {
+      if (channel != null && channel.isOpen())
+        channel.basicPublish(queueName + ".members", "", new AMQP.BasicProperties.Builder().type(type).build(), nodeId.getBytes(StandardCharsets.UTF_8));
+    }
+    catch (IOException | AlreadyClosedException e)
+    {
+      LOGGER.debug("SHARD_HEARTBEAT_ERROR", e.getMessage());
+    }
+  }
+
+  private void onHeartbeat(String type, String member)
+  {
+    boolean changed;
+    if (LEAVE.equals(type))
+      changed = members.remove(member) != null;
+    else
+      changed = members.put(member, System.nanoTime()) == null;
+    if (changed && settled)
+      RabbitMQScheduler.getEventExecutor().execute(rebalanceTask);
+  }
+
+  private void expire()
+  {
+    long deadline = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(MISSED_HEARTBEATS * heartbeatInterval);
+    boolean changed = false;
+    for (Iterator<Map.Entry<String, Long>> i = members.entrySet().iterator(); i.hasNext();)
+    {
+      Map.Entry<String, Long> member = i.next();
+      if (!nodeId.equals(member.getKey()) && member.getValue() - deadline < 0)
+      {
+        i.remove();
+        changed = true;
+      }
+    }
+    if (changed && settled)
+      RabbitMQScheduler.getEventExecutor().execute(rebalanceTask);
+  }
+
+  private synchronized void rebalance()
+  {
+    if (stopped)
+      return;
+    members.put(nodeId, System.nanoTime());
+    Set<Integer> shards = new TreeSet<Integer>();
+    for (int shard = 0; shard < shardCount; shard++)
+      if (nodeId.equals(owner(members.keySet(), shard)))
+        shards.add(shard);
+    if (!shards.equals(owned))
+    {
+      owned = Collections.unmodifiableSet(shards);
+      LOGGER.info("SHARDS_ASSIGNED", shards.size(), shardCount, queueName, members.size());
+      assign(owned);
+    }
+  }
+
+  static String owner(Set<String> members, int shard)
+  {
+    String owner = null;
+    long highest = 0;
+    for (String member : members)
+    {
+      long weight = weight(member, shard);
+      if (owner == null || weight > highest || (weight == highest && member.compareTo(owner) > 0))
+      {
+        owner = member;
+        highest = weight;
+      }
+    }
+    return owner;
+  }
+
+  private static long weight(String member, int shard)
+  {
+    // FNV-1a of the member id mixed with the shard number by the MurmurHash3 finalizer
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < member.length(); i++)
+    {
+      hash ^= member.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    hash ^= shard * 0x9e3779b97f4a7c15L;
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
@@ -0,0 +1,461 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+
+package com.esri.geoevent.transport.rabbitmq;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only store for messages that could not be published, kept in memory-mapped segment files so that appending
+ * is a sequential write into the page cache and the messages survive a restart of the transport. Segments are reused
+ * once they have been read, so the spool never takes more than its size cap on disk; when every segment is in use, the
+ * oldest one is dropped to make room. Messages are read back by a single reader with {@link #peek()} and
+ * {@link #remove()}, the read position is kept in the segment so a restart resumes where reading left off. Every record
+ * carries a checksum, a restart only picks up the records up to the first one that was not completely written.
+ */
+public class RabbitMQSpool implements Closeable
+{
+  private static final int          MAGIC         = 0x52514d53;
+  // magic, sequence number, read offset
+  private static final int          HEADER        = 16;
+  private static final int          READ_OFFSET   = 12;
+  // length and checksum in front of every record
+  private static final int          RECORD_HEADER = 8;
+  private static final String       SUFFIX        = ".spool";
+  private final File                directory;
+  private final int                 segmentSize;
+  private final int                 maxSegments;
+  private final ArrayDeque<Segment> segments      = new ArrayDeque<Segment>();
+  private final ArrayDeque<Segment> free          = new ArrayDeque<Segment>();
+  private final LongAdder           spooled       = new LongAdder();
+  private final LongAdder           dropped       = new LongAdder();
+  private final FileChannel         lockChannel;
+  private final FileLock            lock;
+  private int                       fileCount;
+  private int                       nextFile;
+  private long                      sequence;
+  private long                      backlog;
+  private Segment                   peekedSegment;
+  private int                       peekedOffset  = -1;
+  private int                       peekedLength;
+
+  /**
+   * Opens the spool in the given directory, which only one spool may use at a time, picking up the messages a previous
+   * spool left unread.
+   */
+  public RabbitMQSpool(File directory, long maxBytes, int segmentSize) throws IOException
+  {
+    this.directory = directory;
+    this.segmentSize = Math.max(HEADER + 64, segmentSize);
+    this.maxSegments = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxBytes / this.segmentSize));
+    if (!directory.isDirectory() && !directory.mkdirs())
+      throw new IOException(directory.getPath());
+    lockChannel = FileChannel.open(new File(directory, "lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    FileLock lock = null;
+    try
+    {
+      lock = lockChannel.tryLock();
+    }
+    catch (OverlappingFileLockException e)
+    {
+      // held by another spool of this process
+    }
+    if (lock == null)
+    {
+      lockChannel.close();
+      throw new IOException(directory.getPath());
+    }
+    this.lock = lock;
+    try
+    {
+      recover();
+    }
+    catch (IOException e)
+    {
+      close();
+      throw e;
+    }
+  }
+
+  private void recover() throws IOException
+  {
+    List<Segment> existing = new ArrayList<Segment>();
+    File[] files = directory.listFiles();
+    if (files != null)
+    {
+      for (File file : files)
+      {
+        String name = file.getName();
+        if (!name.endsWith(SUFFIX))
+          continue;
+        try
+        {
+          nextFile = Math.max(nextFile, Integer.parseInt(name.substring(0, name.length() - SUFFIX.length())) + 1);
+        }
+        catch (NumberFormatException e)
+        {
+          continue;
+        }
+        if (file.length() < HEADER + RECORD_HEADER)
+        {
+          // never mapped completely, holds nothing
+          file.delete();
+          continue;
+        }
+        Segment segment = new Segment(file, (int) Math.min(Integer.MAX_VALUE, file.length()));
+        fileCount++;
+        if (segment.buffer.getInt(0) != MAGIC)
+        {
+          recycle(segment);
+          continue;
+        }
+        segment.sequence = segment.buffer.getLong(4);
+        segment.readOffset = Math.max(HEADER, segment.buffer.getInt(READ_OFFSET));
+        int offset = HEADER;
+        int length;
+        while ((length = lengthAt(segment, offset)) > 0 && segment.buffer.getInt(offset + 4) == checksum(segment.buffer, offset + RECORD_HEADER, length))
+        {
+          if (offset >= segment.readOffset)
+            segment.count++;
+          offset += RECORD_HEADER + length;
+        }
+        // anything beyond is torn or stale and gets overwritten
+        if (offset + 4 <= segment.buffer.capacity())
+          segment.buffer.putInt(offset, 0);
+        segment.writeOffset = offset;
+        segment.readOffset = Math.min(segment.readOffset, offset);
+        existing.add(segment);
+      }
+    }
+    Collections.sort(existing, new Comparator<Segment>()
+      {
+        @Override
+        public int compare(Segment a, Segment b)
+        {
+          return Long.compare(a.sequence, b.sequence);
+        }
+      });
+    for (Segment segment : existing)
+    {
+      sequence = Math.max(sequence, segment.sequence);
+      if (segment.count > 0)
+      {
+        segments.add(segment);
+        backlog += segment.count;
+      }
+      else
+        recycle(segment);
+    }
+  }
+
+  /**
+   * @return false if the message was dropped because it is larger than a segment or the spool is closed
+   */
+  public synchronized boolean append(RabbitMQRoute route, ByteBuffer body)
+  {
+    if (!lockChannel.isOpen())
+    {
+      dropped.increment();
+      return false;
+    }
+    byte[] routingKey = route.getRoutingKey().getBytes(StandardCharsets.UTF_8);
+    List<byte[]> headers = new ArrayList<byte[]>();
+    if (route.getHeaders() != null)
+    {
+      for (Map.Entry<String, Object> header : route.getHeaders().entrySet())
+      {
+        headers.add(header.getKey().getBytes(StandardCharsets.UTF_8));
+        headers.add(String.valueOf(header.getValue()).getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    int length = 4 + routingKey.length + 4 + body.remaining();
+    for (byte[] header : headers)
+      length += 4 + header.length;
+    Segment segment = writable(RECORD_HEADER + length);
+    if (segment == null)
+    {
+      dropped.increment();
+      return false;
+    }
+    ByteBuffer buffer = segment.buffer;
+    int offset = segment.writeOffset;
+    buffer.position(offset + RECORD_HEADER);
+    buffer.putInt(routingKey.length);
+    buffer.put(routingKey);
+    buffer.putInt(headers.size() / 2);
+    for (byte[] header : headers)
+    {
+      buffer.putInt(header.length);
+      buffer.put(header);
+    }
+    buffer.put(body.duplicate());
+    segment.writeOffset = buffer.position();
+    // ends the data for a reader after a restart, the segment may hold older records beyond this point
+    if (segment.writeOffset + 4 <= buffer.capacity())
+      buffer.putInt(segment.writeOffset, 0);
+    // the length goes last, a record only counts once it is complete
+    buffer.putInt(offset + 4, checksum(buffer, offset + RECORD_HEADER, length));
+    buffer.putInt(offset, length);
+    segment.count++;
+    backlog++;
+    spooled.increment();
+    return true;
+  }
+
+  private Segment writable(int size)
+  {
+    Segment tail = segments.peekLast();
+    if (tail != null && tail.writeOffset + size <= tail.buffer.capacity())
+      return tail;
+    if (HEADER + size > segmentSize)
+      return null;
+    Segment segment = free.poll();
+    if (segment == null)
+      segment = create();
+    while (segment == null)
+    {
+      // full, the oldest messages make room
+      Segment oldest = segments.poll();
+      if (oldest == null)
+        return null;
+      dropped.add(oldest.count);
+      backlog -= oldest.count;
+      if (oldest == peekedSegment)
+        peekedSegment = null;
+      if (oldest.buffer.capacity() < segmentSize)
+      {
+        // left by a spool with smaller segments, a full size one takes its place
+        discard(oldest);
+        segment = create();
+      }
+      else
+        segment = oldest;
+    }
+    if (tail != null && tail != segment)
+    {
+      tail.buffer.force();
+      if (tail.count == 0 && segments.remove(tail))
+        recycle(tail);
+    }
+    reset(segment);
+    segment.sequence = ++sequence;
+    segment.buffer.putLong(4, segment.sequence);
+    segments.add(segment);
+    return segment;
+  }
+
+  // a new segment file, or null if the spool has reached its size cap
+  private Segment create()
+  {
+    if (fileCount >= maxSegments)
+      return null;
+    try
+    {
+      Segment segment = new Segment(new File(directory, nextFile++ + SUFFIX), segmentSize);
+      fileCount++;
+      return segment;
+    }
+    catch (IOException e)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Puts a segment that holds no more messages on the free list. One smaller than the current segment size, left by a
+   * spool with smaller segments, could not take every message and is deleted instead.
+   */
+  private void recycle(Segment segment)
+  {
+    if (segment.buffer.capacity() < segmentSize)
+      discard(segment);
+    else
+    {
+      reset(segment);
+      free.add(segment);
+    }
+  }
+
+  private void discard(Segment segment)
+  {
+    segment.file.delete();
+    fileCount--;
+  }
+
+  /**
+   * Returns the oldest unread message without removing it, or null if there is none.
+   */
+  public synchronized RabbitMQMessage peek()
+  {
+    Segment segment = segments.peek();
+    if (segment == null || segment.count == 0)
+      return null;
+    ByteBuffer buffer = segment.buffer.duplicate();
+    int length = buffer.getInt(segment.readOffset);
+    buffer.position(segment.readOffset + RECORD_HEADER);
+    buffer.limit(segment.readOffset + RECORD_HEADER + length);
+    String routingKey = readString(buffer);
+    int headerCount = buffer.getInt();
+    Map<String, Object> headers = (headerCount > 0) ? new LinkedHashMap<String, Object>() : null;
+    for (int i = 0; i < headerCount; i++)
+      headers.put(readString(buffer), readString(buffer));
+    byte[] body = new byte[buffer.remaining()];
+    buffer.get(body);
+    peekedSegment = segment;
+    peekedOffset = segment.readOffset;
+    peekedLength = length;
+    return new RabbitMQMessage(new RabbitMQRoute(routingKey, headers), body);
+  }
+
+  /**
+   * Removes the message returned by the last {@link #peek()}, unless it has been dropped in the meantime.
+   */
+  public synchronized void remove()
+  {
+    Segment segment = peekedSegment;
+    peekedSegment = null;
+    if (segment == null || segment != segments.peek() || segment.readOffset != peekedOffset)
+      return;
+    segment.readOffset += RECORD_HEADER + peekedLength;
+    segment.buffer.putInt(READ_OFFSET, segment.readOffset);
+    segment.count--;
+    backlog--;
+    if (segment.count == 0 && segment != segments.peekLast())
+    {
+      segments.poll();
+      recycle(segment);
+    }
+  }
+
+  public synchronized long getBacklog()
+  {
+    return backlog;
+  }
+
+  public long getSpooledCount()
+  {
+    return spooled.sum();
+  }
+
+  public long getDroppedCount()
+  {
+    return dropped.sum();
+  }
+
+  @Override
+  public synchronized void close() throws IOException
+  {
+    for (Segment segment : segments)
+      segment.buffer.force();
+    segments.clear();
+    free.clear();
+    try
+    {
+      if (lock != null)
+        lock.release();
+    }
+    finally
+    {
+      lockChannel.close();
+    }
+  }
+
+  private static void reset(Segment segment)
+  {
+    segment.buffer.putInt(0, MAGIC);
+    segment.buffer.putLong(4, 0);
+    segment.buffer.putInt(READ_OFFSET, HEADER);
+    if (segment.buffer.capacity() >= HEADER + 4)
+      segment.buffer.putInt(HEADER, 0);
+    segment.readOffset = HEADER;
+    segment.writeOffset = HEADER;
+    segment.count = 0;
+  }
+
+  // the length of the record at the offset, 0 at the end of the data
+  private static int lengthAt(Segment segment, int offset)
+  {
+    if (offset + RECORD_HEADER > segment.buffer.capacity())
+      return 0;
+    int length = segment.buffer.getInt(offset);
+    return (length > 0 && length <= segment.buffer.capacity() - offset - RECORD_HEADER) ? length : 0;
+  }
+
+  private static int checksum(ByteBuffer buffer, int offset, int length)
+  {
+    ByteBuffer record = buffer.duplicate();
+    record.limit(offset + length);
+    record.position(offset);
+    CRC32 crc = new CRC32();
+    crc.update(record);
+    return (int) crc.getValue();
+  }
+
+  private static String readString(ByteBuffer buffer)
+  {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static class Segment
+  {
+    private final File             file;
+    private final MappedByteBuffer buffer;
+    private long                   sequence;
+    private int                    readOffset;
+    private int                    writeOffset;
+    private int                    count;
+
+    private Segment(File file, int size) throws IOException
+    {
+      this.file = file;
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+      {
+        // the mapping stays valid after the file is closed
+        buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+      }
+    }
+  }
+}